@@ -0,0 +1,172 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// The methods arrays have, shared the same way as StringMethod's. They work
+// on the array's storage directly; map, filter and reduce call back into
+// whichever engine is running through the callable they are given, and
+// only visit the elements the array had when they started. What keys(),
+// values() and entries() return gets the methods that don't change an
+// array, run on a copy of it.
+abstract class ArrayMethod {
+    private static final Map<String, ArrayMethod> METHODS = Map.of(
+        "push", new ArrayMethod(1, true) {
+            @Override
+            Object call(Interpreter interpreter, IvoryScriptArray array, List<Object> arguments) {
+                array.add(arguments.get(0));
+                return (long) array.length();
+            }
+        },
+        "pop", new ArrayMethod(0, true) {
+            @Override
+            Object call(Interpreter interpreter, IvoryScriptArray array, List<Object> arguments) {
+                return array.removeLast();
+            }
+        },
+        "slice", new ArrayMethod(2) {
+            @Override
+            Object call(Interpreter interpreter, IvoryScriptArray array, List<Object> arguments) {
+                if (!Interpreter.isNumber(arguments.get(0)) || !Interpreter.isNumber(arguments.get(1))) {
+                    throw new Interpreter.RuntimeError(null, "slice() requires two number arguments.");
+                }
+                int start = Interpreter.toInt(arguments.get(0));
+                int end = Interpreter.toInt(arguments.get(1));
+                if (start < 0 || end > array.length() || start > end) {
+                    throw new Interpreter.RuntimeError(null, "Invalid slice indices.");
+                }
+                return array.slice(start, end);
+            }
+        },
+        "concat", new ArrayMethod(1) {
+            @Override
+            Object call(Interpreter interpreter, IvoryScriptArray array, List<Object> arguments) {
+                Object other = arguments.get(0);
+                if (other instanceof DictionaryView) other = ((DictionaryView) other).toArray();
+                if (!(other instanceof IvoryScriptArray)) {
+                    throw new Interpreter.RuntimeError(null, "concat() requires an array argument.");
+                }
+                IvoryScriptArray result = array.slice(0, array.length());
+                result.addAll((IvoryScriptArray) other);
+                return result;
+            }
+        },
+        "fill", new ArrayMethod(1, true) {
+            @Override
+            Object call(Interpreter interpreter, IvoryScriptArray array, List<Object> arguments) {
+                array.fill(arguments.get(0));
+                return array;
+            }
+        },
+        "sort", new ArrayMethod(0, true) {
+            @Override
+            Object call(Interpreter interpreter, IvoryScriptArray array, List<Object> arguments) {
+                array.sort();
+                return array;
+            }
+        },
+        "indexOf", new ArrayMethod(1) {
+            @Override
+            Object call(Interpreter interpreter, IvoryScriptArray array, List<Object> arguments) {
+                return (long) array.indexOf(arguments.get(0));
+            }
+        },
+        "map", new ArrayMethod(1) {
+            @Override
+            Object call(Interpreter interpreter, IvoryScriptArray array, List<Object> arguments) {
+                IvoryScriptCallable function = callback("map", arguments.get(0), 1);
+                int length = array.length();
+                List<Object> results = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    results.add(function.call(interpreter, Collections.singletonList(array.get(i))));
+                }
+                return new IvoryScriptArray(results);
+            }
+        },
+        "filter", new ArrayMethod(1) {
+            @Override
+            Object call(Interpreter interpreter, IvoryScriptArray array, List<Object> arguments) {
+                IvoryScriptCallable function = callback("filter", arguments.get(0), 1);
+                int length = array.length();
+                List<Object> results = new ArrayList<>();
+                for (int i = 0; i < length; i++) {
+                    Object element = array.get(i);
+                    if (Interpreter.isTruthy(function.call(interpreter, Collections.singletonList(element)))) {
+                        results.add(element);
+                    }
+                }
+                return new IvoryScriptArray(results);
+            }
+        },
+        "reduce", new ArrayMethod(2) {
+            @Override
+            Object call(Interpreter interpreter, IvoryScriptArray array, List<Object> arguments) {
+                IvoryScriptCallable function = callback("reduce", arguments.get(0), 2);
+                int length = array.length();
+                Object result = arguments.get(1);
+                for (int i = 0; i < length; i++) {
+                    result = function.call(interpreter, Arrays.asList(result, array.get(i)));
+                }
+                return result;
+            }
+        });
+
+    final int arity;
+    private final boolean changesArray;
+
+    private ArrayMethod(int arity) {
+        this(arity, false);
+    }
+
+    private ArrayMethod(int arity, boolean changesArray) {
+        this.arity = arity;
+        this.changesArray = changesArray;
+    }
+
+    abstract Object call(Interpreter interpreter, IvoryScriptArray array, List<Object> arguments);
+
+    // Null when arrays have no method by that name.
+    static ArrayMethod find(String name) {
+        return METHODS.get(name);
+    }
+
+    // The array to call this on, given an IvoryScriptArray or a
+    // DictionaryView.
+    IvoryScriptArray receiver(Object object) {
+        if (object instanceof IvoryScriptArray) return (IvoryScriptArray) object;
+        if (changesArray) {
+            throw new Interpreter.RuntimeError(null, "Arrays from keys(), values() and entries() can't be changed.");
+        }
+        return ((DictionaryView) object).toArray();
+    }
+
+    IvoryScriptCallable bind(IvoryScriptArray array) {
+        return new IvoryScriptCallable() {
+            @Override
+            public int arity() {
+                return arity;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return ArrayMethod.this.call(interpreter, array, arguments);
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        };
+    }
+
+    static IvoryScriptCallable callback(String method, Object value, int arity) {
+        if (!(value instanceof IvoryScriptCallable) || ((IvoryScriptCallable) value).arity() != arity) {
+            throw new Interpreter.RuntimeError(null, method + "() requires a function taking " + arity
+                    + (arity == 1 ? " argument." : " arguments."));
+        }
+        return (IvoryScriptCallable) value;
+    }
+}
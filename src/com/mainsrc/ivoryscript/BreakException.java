@@ -1,7 +0,0 @@
-package com.mainsrc.ivoryscript;
-
-class BreakException extends RuntimeException {
-    BreakException() {
-        super(null, null, false, false);
-    }
-}
\ No newline at end of file
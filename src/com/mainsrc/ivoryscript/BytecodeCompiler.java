@@ -0,0 +1,756 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Compiles the parsed program into bytecode for the VM. Locals live on the VM
+// stack and are addressed by slot; variables captured by closures become
+// upvalues, as in clox. Top-level variables are globals addressed by an index
+// into the VM's global table.
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+
+    // Net change in stack depth for each opcode. CALL, INVOKE, CLASS, ARRAY
+    // and DICTIONARY depend on their operands and are adjusted where emitted.
+    private static final int[] STACK_EFFECT = new int[OpCode.INVOKE + 1];
+    static {
+        for (int op : new int[] {OpCode.CONSTANT, OpCode.NIL, OpCode.TRUE, OpCode.FALSE,
+                OpCode.GET_LOCAL, OpCode.GET_GLOBAL, OpCode.GET_UPVALUE, OpCode.CLOSURE}) {
+            STACK_EFFECT[op] = 1;
+        }
+        for (int op : new int[] {OpCode.POP, OpCode.DEFINE_GLOBAL, OpCode.SET_PROPERTY,
+                OpCode.GET_SUPER, OpCode.GET_INDEX, OpCode.EQUAL, OpCode.GREATER,
+                OpCode.GREATER_EQUAL, OpCode.LESS, OpCode.LESS_EQUAL, OpCode.ADD,
+                OpCode.SUBTRACT, OpCode.MULTIPLY, OpCode.DIVIDE, OpCode.PRINT,
+                OpCode.JUMP_IF_FALSE, OpCode.CLOSE_UPVALUE, OpCode.RETURN}) {
+            STACK_EFFECT[op] = -1;
+        }
+        STACK_EFFECT[OpCode.SET_INDEX] = -2;
+    }
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        METHOD
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean captured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    // A loop or choose statement that 'disrupt' can jump out of.
+    private static class BreakTarget {
+        final int scopeDepth;
+        final List<Integer> jumps = new ArrayList<>();
+
+        BreakTarget(int scopeDepth) {
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VmFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        final List<BreakTarget> breakTargets = new ArrayList<>();
+        int scopeDepth = 0;
+        int stackDepth = 1;
+
+        FunctionState(FunctionState enclosing, VmFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            locals.add(new Local(type == FunctionType.METHOD ? "this" : "", 0));
+        }
+    }
+
+    private final VM vm;
+    private final ErrorReporter errors;
+    private FunctionState current;
+    private int line = 1;
+
+    BytecodeCompiler(VM vm, ErrorReporter errors) {
+        this.vm = vm;
+        this.errors = errors;
+    }
+
+    VmFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, new VmFunction(null, null, 0), FunctionType.SCRIPT);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emitOp(OpCode.NIL);
+        emitOp(OpCode.RETURN);
+        VmFunction script = endFunction();
+        return errors.hadError() ? null : script;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void compileAll(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+    }
+
+    private void error(String message) {
+        errors.error(line, message);
+    }
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private void emitByte(int value) {
+        chunk().write(value, line);
+    }
+
+    private void emitOp(int op) {
+        emitByte(op);
+        adjustStack(STACK_EFFECT[op]);
+    }
+
+    private void emitBytes(int op, int operand) {
+        emitOp(op);
+        emitByte(operand);
+    }
+
+    private void emitShort(int value) {
+        emitByte((value >> 8) & 0xff);
+        emitByte(value & 0xff);
+    }
+
+    private void emitOpShort(int op, int operand) {
+        emitOp(op);
+        emitShort(operand);
+    }
+
+    // Tracks how deep the stack can get inside the current function so the
+    // VM only has to grow it once per call instead of checking every push.
+    private void adjustStack(int delta) {
+        current.stackDepth += delta;
+        if (current.stackDepth > current.function.maxStack) {
+            current.function.maxStack = current.stackDepth;
+        }
+    }
+
+    private void emitConstant(Object value) {
+        emitOpShort(OpCode.CONSTANT, makeConstant(value));
+    }
+
+    private int makeConstant(Object value) {
+        int index = chunk().addConstant(value);
+        if (index > 0xffff) {
+            error("Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private int emitJump(int op) {
+        emitOp(op);
+        emitShort(0xffff);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk().count - offset - 2;
+        if (jump > 0xffff) {
+            error("Too much code to jump over.");
+        }
+        chunk().code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk().code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emitOp(OpCode.LOOP);
+        int offset = chunk().count - loopStart + 2;
+        if (offset > 0xffff) error("Loop body too large.");
+        emitShort(offset);
+    }
+
+    private VmFunction endFunction() {
+        VmFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.finish();
+        return function;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emitOp(locals.get(locals.size() - 1).captured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private void addLocal(String name) {
+        if (current.locals.size() == MAX_LOCALS) {
+            error("Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    // Slot of a local with this name declared in the innermost scope, or -1.
+    private int localInCurrentScope(String name) {
+        for (int i = current.locals.size() - 1; i >= 0; i--) {
+            Local local = current.locals.get(i);
+            if (local.depth < current.scopeDepth) break;
+            if (local.name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    // Binds the value on top of the stack to a newly declared variable.
+    private void defineVariable(String name) {
+        if (current.scopeDepth == 0) {
+            emitOpShort(OpCode.DEFINE_GLOBAL, vm.globalSlot(name));
+            return;
+        }
+
+        // Redeclaring a name in the same scope reuses its slot, just like
+        // the tree-walker reuses the environment slot.
+        int existing = localInCurrentScope(name);
+        if (existing >= 0) {
+            emitBytes(OpCode.SET_LOCAL, existing);
+            emitOp(OpCode.POP);
+            return;
+        }
+        addLocal(name);
+    }
+
+    // Gives every function declared directly in a block its local slot, set
+    // to nil, before the block's code runs, so functions can call siblings
+    // declared after them. The Resolver does the same for the tree-walker.
+    private void declareFunctions(List<Stmt> statements) {
+        if (current.scopeDepth == 0) return;
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Function)) continue;
+            String name = ((Stmt.Function) statement).name.lexeme;
+            if (localInCurrentScope(name) == -1) {
+                emitOp(OpCode.NIL);
+                addLocal(name);
+            }
+        }
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).captured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(state, upvalue, false);
+        }
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) {
+                return i;
+            }
+        }
+
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            error("Too many closure variables in function.");
+            return 0;
+        }
+
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private void namedVariable(String name, boolean assign) {
+        int slot = resolveLocal(current, name);
+        if (slot != -1) {
+            emitBytes(assign ? OpCode.SET_LOCAL : OpCode.GET_LOCAL, slot);
+            return;
+        }
+
+        int upvalue = resolveUpvalue(current, name);
+        if (upvalue != -1) {
+            emitBytes(assign ? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE, upvalue);
+            return;
+        }
+
+        emitOpShort(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL, vm.globalSlot(name));
+    }
+
+    private void function(Stmt.Function stmt, FunctionType type) {
+        VmFunction function = new VmFunction(stmt.name.lexeme, stmt, stmt.params.size());
+        current = new FunctionState(current, function, type);
+        beginScope();
+
+        for (Token param : stmt.params) {
+            addLocal(param.lexeme);
+        }
+        adjustStack(stmt.params.size());
+        declareFunctions(stmt.body);
+        compileAll(stmt.body);
+
+        emitOp(OpCode.NIL);
+        emitOp(OpCode.RETURN);
+
+        FunctionState state = current;
+        endFunction();
+        current = state.enclosing;
+
+        emitOpShort(OpCode.CLOSURE, makeConstant(function));
+        for (Upvalue upvalue : state.upvalues) {
+            emitByte(upvalue.isLocal ? 1 : 0);
+            emitByte(upvalue.index);
+        }
+    }
+
+    private void emitBreakTargetJumps(BreakTarget target) {
+        for (int jump : target.jumps) {
+            patchJump(jump);
+        }
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emitOp(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emitOp(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emitOp(OpCode.NIL);
+        }
+        line = stmt.name.line;
+        defineVariable(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        declareFunctions(stmt.statements);
+        compileAll(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        compile(stmt.thenBranch);
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk().count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+
+        BreakTarget target = new BreakTarget(current.scopeDepth);
+        current.breakTargets.add(target);
+        compile(stmt.body);
+        current.breakTargets.remove(current.breakTargets.size() - 1);
+
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emitBreakTargetJumps(target);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) compile(stmt.initializer);
+
+        int loopStart = chunk().count;
+        int exitJump = -1;
+        if (stmt.condition != null) {
+            compile(stmt.condition);
+            exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        }
+
+        BreakTarget target = new BreakTarget(current.scopeDepth);
+        current.breakTargets.add(target);
+        compile(stmt.body);
+        current.breakTargets.remove(current.breakTargets.size() - 1);
+
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            emitOp(OpCode.POP);
+        }
+        emitLoop(loopStart);
+        if (exitJump != -1) patchJump(exitJump);
+        emitBreakTargetJumps(target);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (current.breakTargets.isEmpty()) {
+            error("Can't use 'disrupt' outside of a loop or choose.");
+            return null;
+        }
+
+        BreakTarget target = current.breakTargets.get(current.breakTargets.size() - 1);
+        int depth = current.stackDepth;
+        for (int i = current.locals.size() - 1; i >= 0; i--) {
+            Local local = current.locals.get(i);
+            if (local.depth <= target.scopeDepth) break;
+            emitOp(local.captured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+        target.jumps.add(emitJump(OpCode.JUMP));
+        current.stackDepth = depth;
+        return null;
+    }
+
+    // Once an option matches, control falls through the following option
+    // bodies without testing them. 'otherwise' only runs when nothing
+    // matched, which is how the tree-walker behaves.
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        beginScope();
+        compile(stmt.condition);
+        addLocal("");
+        int conditionSlot = current.locals.size() - 1;
+
+        BreakTarget target = new BreakTarget(current.scopeDepth);
+        current.breakTargets.add(target);
+
+        int fallthroughJump = -1;
+        for (Stmt.Case caseStmt : stmt.cases) {
+            emitBytes(OpCode.GET_LOCAL, conditionSlot);
+            compile(caseStmt.value);
+            emitOp(OpCode.EQUAL);
+            int nextCase = emitJump(OpCode.JUMP_IF_FALSE);
+
+            if (fallthroughJump != -1) patchJump(fallthroughJump);
+            beginScope();
+            declareFunctions(caseStmt.body);
+            compileAll(caseStmt.body);
+            endScope();
+            fallthroughJump = emitJump(OpCode.JUMP);
+
+            patchJump(nextCase);
+        }
+
+        if (stmt.defaultCase != null) {
+            beginScope();
+            declareFunctions(stmt.defaultCase.body);
+            compileAll(stmt.defaultCase.body);
+            endScope();
+        }
+
+        if (fallthroughJump != -1) patchJump(fallthroughJump);
+        current.breakTargets.remove(current.breakTargets.size() - 1);
+        emitBreakTargetJumps(target);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitCaseStmt(Stmt.Case stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitDefaultStmt(Stmt.Default stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        // A local function's slot was declared at the start of its block,
+        // so the body can already refer to it.
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emitOp(OpCode.NIL);
+        }
+        emitOp(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        String name = stmt.name.lexeme;
+        boolean global = current.scopeDepth == 0;
+
+        // The name is bound to nil first, as in the tree-walker. A global
+        // superclass is read before that happens; a local class needs its
+        // slot below the superclass on the stack.
+        if (!global) {
+            emitOp(OpCode.NIL);
+            defineVariable(name);
+        }
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+        }
+        if (global) {
+            emitOp(OpCode.NIL);
+            defineVariable(name);
+        }
+
+        beginScope();
+        if (stmt.superclass != null) {
+            addLocal("super");
+        }
+
+        for (Stmt.Function method : stmt.methods) {
+            function(method, FunctionType.METHOD);
+        }
+
+        if (stmt.superclass != null) line = stmt.superclass.name.line;
+        emitOpShort(OpCode.CLASS, makeConstant(name));
+        emitByte(stmt.methods.size());
+        emitByte(stmt.superclass != null ? 1 : 0);
+        adjustStack(-stmt.methods.size());
+        line = stmt.name.line;
+
+        namedVariable(name, true);
+        emitOp(OpCode.POP);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emitOp(OpCode.NIL);
+        } else if (expr.value.equals(Boolean.TRUE)) {
+            emitOp(OpCode.TRUE);
+        } else if (expr.value.equals(Boolean.FALSE)) {
+            emitOp(OpCode.FALSE);
+        } else {
+            emitConstant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG: emitOp(OpCode.NOT); break;
+            case MINUS: emitOp(OpCode.NEGATE); break;
+            default: error("Unknown unary operator.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case PLUS: emitOp(OpCode.ADD); break;
+            case MINUS: emitOp(OpCode.SUBTRACT); break;
+            case STAR: emitOp(OpCode.MULTIPLY); break;
+            case SLASH: emitOp(OpCode.DIVIDE); break;
+            case EQUAL_EQUAL: emitOp(OpCode.EQUAL); break;
+            case BANG_EQUAL: emitOp(OpCode.EQUAL); emitOp(OpCode.NOT); break;
+            case GREATER: emitOp(OpCode.GREATER); break;
+            case GREATER_EQUAL: emitOp(OpCode.GREATER_EQUAL); break;
+            case LESS: emitOp(OpCode.LESS); break;
+            case LESS_EQUAL: emitOp(OpCode.LESS_EQUAL); break;
+            default: error("Unknown binary operator.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        namedVariable(expr.name.lexeme, false);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        namedVariable(expr.name.lexeme, true);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        // obj.method(...) leaves obj in the callee slot and looks the method
+        // up when the call happens, so no bound method is created.
+        Expr.Get method = expr.callee instanceof Expr.Get ? (Expr.Get) expr.callee : null;
+        compile(method != null ? method.object : expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        line = expr.paren.line;
+        if (expr.arguments.size() > 255) {
+            error("Cannot have more than 255 arguments.");
+        }
+        if (method != null) {
+            emitOpShort(OpCode.INVOKE, makeConstant(method.name));
+            emitShort(chunk().addCache());
+            emitByte(expr.arguments.size());
+        } else {
+            emitBytes(OpCode.CALL, expr.arguments.size());
+        }
+        adjustStack(-expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitOpShort(OpCode.GET_PROPERTY, makeConstant(expr.name));
+        emitShort(chunk().addCache());
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emitOpShort(OpCode.SET_PROPERTY, makeConstant(expr.name));
+        emitShort(chunk().addCache());
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line;
+        namedVariable("super", false);
+        namedVariable("this", false);
+        emitOpShort(OpCode.GET_SUPER, makeConstant(expr.method));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.keyword.line;
+        namedVariable("this", false);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        for (Expr element : expr.elements) {
+            compile(element);
+        }
+        if (expr.elements.size() > 0xffff) error("Too many elements in array literal.");
+        emitOpShort(OpCode.ARRAY, expr.elements.size());
+        adjustStack(1 - expr.elements.size());
+        return null;
+    }
+
+    @Override
+    public Void visitDictionaryExpr(Expr.Dictionary expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            compile(expr.keys.get(i));
+            compile(expr.values.get(i));
+        }
+        if (expr.keys.size() > 0xffff) error("Too many entries in dictionary literal.");
+        emitOpShort(OpCode.DICTIONARY, expr.keys.size());
+        adjustStack(1 - expr.keys.size() * 2);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        compile(expr.index);
+        line = expr.bracket.line;
+        emitOp(OpCode.GET_INDEX);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexAssignExpr(Expr.IndexAssign expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+        line = expr.bracket.line;
+        emitOp(OpCode.SET_INDEX);
+        return null;
+    }
+}
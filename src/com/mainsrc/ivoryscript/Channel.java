@@ -0,0 +1,206 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// What channel(capacity) returns: a bounded queue for handing values from
+// one task to another. send() waits while the channel is full and receive()
+// while it's empty. Once it's closed, sends are an error and receive()
+// drains what's left, then returns nil.
+//
+// Values live in a ring buffer guarded by one lock, like ArrayBlockingQueue,
+// which holds it only long enough to move one value. The buffer starts
+// small and grows up to the capacity, so a large capacity costs nothing
+// until it's used. select() waits on several channels at once by
+// registering its thread with each, and a send or close unparks it.
+final class Channel {
+    private static final int INITIAL_SIZE = 16;
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final List<Thread> selectors = new ArrayList<>();
+    private Object[] items;
+    private int head;
+    private int count;
+    private boolean closed;
+
+    private final IvoryScriptCallable send = new IvoryScriptNativeFunction(1, args -> {
+        send(args.get(0));
+        return null;
+    });
+
+    private final IvoryScriptCallable trySend = new IvoryScriptNativeFunction(1, args -> trySend(args.get(0)));
+
+    private final IvoryScriptCallable receive = new IvoryScriptNativeFunction(0, args -> receive());
+
+    private final IvoryScriptCallable close = new IvoryScriptNativeFunction(0, args -> {
+        close();
+        return null;
+    });
+
+    Channel(int capacity) {
+        this.capacity = capacity;
+        this.items = new Object[Math.min(capacity, INITIAL_SIZE)];
+    }
+
+    void send(Object value) {
+        lock.lock();
+        try {
+            while (count == capacity && !closed) {
+                await(notFull);
+            }
+            enqueue(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns false instead of waiting when the channel is full.
+    boolean trySend(Object value) {
+        lock.lock();
+        try {
+            if (count == capacity && !closed) return false;
+            enqueue(value);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Object receive() {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) {
+                await(notEmpty);
+            }
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            wakeSelectors();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits until one of the channels has a value and returns [channel,
+    // value], or nil once all of them are closed and empty. The channels
+    // are tried starting from a random one so none of them is favoured.
+    static Object select(List<Channel> channels) {
+        Thread self = Thread.currentThread();
+        int start = channels.isEmpty() ? 0 : ThreadLocalRandom.current().nextInt(channels.size());
+        while (true) {
+            boolean open = false;
+            try {
+                for (int i = 0; i < channels.size(); i++) {
+                    Channel channel = channels.get((start + i) % channels.size());
+                    channel.lock.lock();
+                    try {
+                        if (channel.count > 0) {
+                            return new IvoryScriptArray(Arrays.asList(channel, channel.dequeue()));
+                        }
+                        if (!channel.closed) {
+                            open = true;
+                            channel.selectors.add(self);
+                        }
+                    } finally {
+                        channel.lock.unlock();
+                    }
+                }
+                if (!open) return null;
+                LockSupport.park(channels);
+                Task.checkCancelled();
+            } finally {
+                for (Channel channel : channels) {
+                    channel.lock.lock();
+                    try {
+                        channel.selectors.remove(self);
+                    } finally {
+                        channel.lock.unlock();
+                    }
+                }
+            }
+        }
+    }
+
+    // The caller holds the lock and has made sure there's room, unless the
+    // channel is closed.
+    private void enqueue(Object value) {
+        if (closed) {
+            throw new Interpreter.RuntimeError(null, "Can't send on a closed channel.");
+        }
+        if (count == items.length) {
+            Object[] grown = new Object[(int) Math.min(capacity, items.length * 2L)];
+            for (int i = 0; i < count; i++) {
+                grown[i] = items[(head + i) % items.length];
+            }
+            items = grown;
+            head = 0;
+        }
+        items[(head + count) % items.length] = value;
+        count++;
+        notEmpty.signal();
+        wakeSelectors();
+    }
+
+    private Object dequeue() {
+        Object value = items[head];
+        items[head] = null;
+        head = (head + 1) % items.length;
+        count--;
+        notFull.signal();
+        return value;
+    }
+
+    private void wakeSelectors() {
+        for (Thread selector : selectors) {
+            LockSupport.unpark(selector);
+        }
+    }
+
+    // A cancelled task interrupts its thread, which ends the wait.
+    private static void await(Condition condition) {
+        try {
+            condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Interpreter.RuntimeError(null, "Task was cancelled.");
+        }
+    }
+
+    Object getProperty(Token name) {
+        switch (name.lexeme) {
+            case "send":
+                return send;
+            case "trySend":
+                return trySend;
+            case "receive":
+                return receive;
+            case "close":
+                return close;
+            default:
+                throw new Interpreter.RuntimeError(name, "Channel has no property '" + name.lexeme + "'.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
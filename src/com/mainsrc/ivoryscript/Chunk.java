@@ -0,0 +1,53 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compiled function body: the instruction bytes, the source line of every
+// byte and the constant pool.
+class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    Object[] constants = new Object[0];
+    private final List<InlineCache> cacheList = new ArrayList<>();
+    InlineCache[] caches = new InlineCache[0];
+
+    void write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte) value;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (index != null) return index;
+
+        constantList.add(value);
+        constantIndex.put(value, constantList.size() - 1);
+        return constantList.size() - 1;
+    }
+
+    int addCache() {
+        cacheList.add(new InlineCache());
+        return cacheList.size() - 1;
+    }
+
+    // Trims the buffers and freezes the constant pool once compilation of
+    // the function is done.
+    void finish() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+        caches = cacheList.toArray(new InlineCache[0]);
+    }
+}
@@ -0,0 +1,105 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.List;
+
+// Base class of the hidden classes JitCompiler generates. A subclass has a
+// run(double...) method holding the translated body and an invoke() bridge
+// that unboxes the arguments for it. Compiled code only handles numbers, so
+// callers check accepts() first and interpret the call otherwise. Integer
+// arguments are computed on as doubles, which gives the same values as long
+// arithmetic while they stay below 2^53. A result that leaves that range,
+// a -0, or a whole result that may have been a Long or a Double throws
+// INEXACT, and the caller runs that call again in the interpreter; compiled
+// code has no side effects, so that is always safe.
+abstract class CompiledFunction {
+    // Integers below 2^53 convert to double exactly.
+    private static final long MAX_EXACT = 1L << 53;
+
+    static final class Inexact extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Inexact() {
+            super(null, null, false, false);
+        }
+    }
+
+    static final Inexact INEXACT = new Inexact();
+
+    // Kinds of number a result can be, combined as bit sets.
+    static final int INTEGRAL = 1;
+    static final int DOUBLE = 2;
+
+    Token[] tokens;
+    String name;
+    boolean recursive;
+    // The kinds the interpreter could return, indexed by a bit set of which
+    // arguments were Longs.
+    int[] results;
+
+    abstract Object invoke(List<Object> arguments);
+
+    // Self-calls are compiled to direct calls, which is only right while the
+    // global the function calls itself through still holds this function.
+    boolean accepts(Interpreter interpreter, IvoryScriptFunction function, List<Object> arguments) {
+        for (Object argument : arguments) {
+            if (argument instanceof Long) {
+                long value = (long) argument;
+                if (value <= -MAX_EXACT || value >= MAX_EXACT) return false;
+            } else if (!(argument instanceof Double) || isNegativeZero((double) argument)) {
+                return false;
+            }
+        }
+        return !recursive || interpreter.globals.getOrDefault(name, null) == function;
+    }
+
+    // Called on every loop back-edge, so a cancelled task stops.
+    static void checkCancelled() {
+        Task.checkCancelled();
+    }
+
+    static double divide(double left, double right, Token operator) {
+        if (right == 0) {
+            throw new Interpreter.RuntimeError(operator, "Division by zero.");
+        }
+        return notNegativeZero(left / right);
+    }
+
+    // Checks the result of every +, - and *.
+    static double exact(double value) {
+        if (value <= -MAX_EXACT || value >= MAX_EXACT) throw INEXACT;
+        return value;
+    }
+
+    // Checks the result of every *, / and negation. The interpreter only
+    // makes -0 as a Double and carries on in Doubles from there, which the
+    // kinds worked out for results don't follow. + and - only make -0 from
+    // a -0, so with no -0 arguments they don't need this.
+    static double notNegativeZero(double value) {
+        if (isNegativeZero(value)) throw INEXACT;
+        return value;
+    }
+
+    private static boolean isNegativeZero(double value) {
+        return value == 0 && Double.doubleToRawLongBits(value) != 0;
+    }
+
+    // Whole results go back as Longs where the interpreter would have kept
+    // them integral.
+    Object box(double value, List<Object> arguments) {
+        long integer = (long) value;
+        if (integer != value) return value;
+        int signature = 0;
+        for (int i = 0; i < arguments.size(); i++) {
+            if (arguments.get(i) instanceof Long) signature |= 1 << i;
+        }
+        switch (results[signature]) {
+            case INTEGRAL: return integer;
+            case DOUBLE: return value;
+            default: throw INEXACT;
+        }
+    }
+
+    static boolean equal(double left, double right) {
+        return Interpreter.numbersEqual(left, right);
+    }
+}
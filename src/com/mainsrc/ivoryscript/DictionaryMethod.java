@@ -0,0 +1,73 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.List;
+import java.util.Map;
+
+// The methods dictionaries have, shared the same way as ArrayMethod's.
+abstract class DictionaryMethod {
+    private static final Map<String, DictionaryMethod> METHODS = Map.of(
+        "keys", new DictionaryMethod(0) {
+            @Override
+            Object call(IvoryScriptDictionary dictionary, List<Object> arguments) {
+                return dictionary.view(DictionaryView.Kind.KEYS);
+            }
+        },
+        "values", new DictionaryMethod(0) {
+            @Override
+            Object call(IvoryScriptDictionary dictionary, List<Object> arguments) {
+                return dictionary.view(DictionaryView.Kind.VALUES);
+            }
+        },
+        "entries", new DictionaryMethod(0) {
+            @Override
+            Object call(IvoryScriptDictionary dictionary, List<Object> arguments) {
+                return dictionary.view(DictionaryView.Kind.ENTRIES);
+            }
+        },
+        "has", new DictionaryMethod(1) {
+            @Override
+            Object call(IvoryScriptDictionary dictionary, List<Object> arguments) {
+                return dictionary.containsKey(arguments.get(0));
+            }
+        },
+        "remove", new DictionaryMethod(1) {
+            @Override
+            Object call(IvoryScriptDictionary dictionary, List<Object> arguments) {
+                return dictionary.remove(arguments.get(0));
+            }
+        },
+        "merge", new DictionaryMethod(1) {
+            @Override
+            Object call(IvoryScriptDictionary dictionary, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof IvoryScriptDictionary)) {
+                    throw new Interpreter.RuntimeError(null, "merge() requires a dictionary argument.");
+                }
+                dictionary.putAll((IvoryScriptDictionary) arguments.get(0));
+                return dictionary;
+            }
+        },
+        "getOrDefault", new DictionaryMethod(2) {
+            @Override
+            Object call(IvoryScriptDictionary dictionary, List<Object> arguments) {
+                Object value = dictionary.get(arguments.get(0));
+                return value != null ? value : arguments.get(1);
+            }
+        });
+
+    final int arity;
+
+    private DictionaryMethod(int arity) {
+        this.arity = arity;
+    }
+
+    abstract Object call(IvoryScriptDictionary dictionary, List<Object> arguments);
+
+    // Null when dictionaries have no method by that name.
+    static DictionaryMethod find(String name) {
+        return METHODS.get(name);
+    }
+
+    IvoryScriptCallable bind(IvoryScriptDictionary dictionary) {
+        return new IvoryScriptNativeFunction(arity, arguments -> call(dictionary, arguments));
+    }
+}
@@ -0,0 +1,63 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// What keys(), values() and entries() return: a read-only array of the
+// dictionary's entries as they were when it was called, sharing the
+// dictionary's arrays rather than copying them. It can be indexed, has a
+// length and has the array methods that don't change an array; type()
+// calls it an array.
+class DictionaryView {
+    enum Kind { KEYS, VALUES, ENTRIES }
+
+    private final Object[] keys;
+    private final Object[] values;
+    private final int size;
+    private final Kind kind;
+
+    DictionaryView(Object[] keys, Object[] values, int size, Kind kind) {
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+        this.kind = kind;
+    }
+
+    Object get(int index) {
+        if (index < 0 || index >= size) {
+            throw new Interpreter.RuntimeError(null, "Array index out of bounds.");
+        }
+        switch (kind) {
+            case KEYS:
+                return keys[index];
+            case VALUES:
+                return values[index];
+            default:
+                return new IvoryScriptArray(Arrays.asList(keys[index], values[index]));
+        }
+    }
+
+    int length() {
+        return size;
+    }
+
+    IvoryScriptArray toArray() {
+        List<Object> elements = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            elements.add(get(i));
+        }
+        return new IvoryScriptArray(elements);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(Interpreter.stringify(get(i)));
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
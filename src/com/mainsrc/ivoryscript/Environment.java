@@ -1,58 +1,72 @@
 package com.mainsrc.ivoryscript;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.mainsrc.ivoryscript.Interpreter.RuntimeError;
 
+// Globals (and everything typed at the REPL) live in a name-keyed map. Every
+// other scope is a fixed-size frame whose slots were assigned by the Resolver.
+// Spawned tasks and parallel workers share the globals with the thread that
+// started them, so that map is a ConcurrentHashMap, with nil stored as NIL.
 class Environment {
-    private final Map<String, Object> values = new HashMap<>();
+    private static final Object NIL = new Object();
+
+    private final Map<String, Object> values;
+    private final Object[] slots;
     final Environment enclosing;
 
     Environment() {
         this.enclosing = null;
+        this.values = new ConcurrentHashMap<>();
+        this.slots = null;
     }
 
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.values = null;
+        this.slots = new Object[size];
     }
 
     void define(String name, Object value) {
-        values.put(name, value);
+        values.put(name, value == null ? NIL : value);
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-
-        if(enclosing != null) {
-            return enclosing.get(name);
+        Object value = values.get(name.lexeme);
+        if (value != null) {
+            return value == NIL ? null : value;
         }
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
+    Object getOrDefault(String name, Object defaultValue) {
+        Object value = values.get(name);
+        if (value == null) return defaultValue;
+        return value == NIL ? null : value;
+    }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+    void assign(Token name, Object value) {
+        // Only replaces an existing global, atomically, so an assignment
+        // racing with the global's definition can't define it.
+        if (values.replace(name.lexeme, value == null ? NIL : value) != null) {
             return;
         }
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    void set(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 
     private Environment ancestor(int distance) {
@@ -63,4 +77,4 @@ class Environment {
         return environment;
     }
 
-}
\ No newline at end of file
+}
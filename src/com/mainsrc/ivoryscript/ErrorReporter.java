@@ -0,0 +1,18 @@
+package com.mainsrc.ivoryscript;
+
+// Collects the compile errors found while scanning, parsing, resolving or
+// compiling one piece of source. Each compilation gets its own, so several
+// scripts can be compiled on different threads at once.
+final class ErrorReporter {
+    private boolean hadError = false;
+
+    void error(int line, String message) {
+        Output.flush();
+        System.err.println("[line" + line + "] Error: " + message);
+        hadError = true;
+    }
+
+    boolean hadError() {
+        return hadError;
+    }
+}
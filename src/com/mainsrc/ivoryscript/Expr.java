@@ -85,6 +85,8 @@ abstract class Expr {
     }
 
     final Token name;
+    int depth = -1;
+    int slot = -1;
   }
   static class Assign extends Expr {
     Assign(Token name, Expr value) {
@@ -99,6 +101,8 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    int depth = -1;
+    int slot = -1;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
@@ -123,6 +127,7 @@ abstract class Expr {
   static class Get extends Expr {
     final Expr object;
     final Token name;
+    final InlineCache cache = new InlineCache();
 
     Get(Expr object, Token name) {
       this.object = object;
@@ -139,6 +144,7 @@ abstract class Expr {
     final Expr object;
     final Token name;
     final Expr value;
+    final InlineCache cache = new InlineCache();
 
     Set(Expr object, Token name, Expr value) {
       this.object = object;
@@ -155,6 +161,8 @@ abstract class Expr {
   static class Super extends Expr {
     final Token keyword;
     final Token method;
+    int depth = -1;
+    int slot = -1;
 
     Super(Token keyword, Token method) {
       this.keyword = keyword;
@@ -169,6 +177,8 @@ abstract class Expr {
 
   static class This extends Expr {
     final Token keyword;
+    int depth = -1;
+    int slot = -1;
 
     This(Token keyword) {
       this.keyword = keyword;
@@ -196,10 +206,12 @@ abstract class Expr {
   static class Dictionary extends Expr {
     final List<Expr> keys;
     final List<Expr> values;
+    final Token brace;
 
-    Dictionary(List<Expr> keys, List<Expr> values) {
+    Dictionary(List<Expr> keys, List<Expr> values, Token brace) {
       this.keys = keys;
       this.values = values;
+      this.brace = brace;
     }
 
     @Override
@@ -0,0 +1,78 @@
+package com.mainsrc.ivoryscript;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// The file natives. Files are read and written in the platform charset, the
+// same one scripts themselves are loaded in.
+final class FileIO {
+    private FileIO() {}
+
+    static String readFile(String path) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+        } catch (IOException e) {
+            throw error("read", path, e);
+        }
+    }
+
+    static void writeFile(String path, String text) {
+        try {
+            Files.write(Paths.get(path), text.getBytes(Charset.defaultCharset()));
+        } catch (IOException e) {
+            throw error("write", path, e);
+        }
+    }
+
+    static List<Object> readLines(String path) {
+        List<Object> result = new ArrayList<>();
+        try (MappedLines lines = open(path)) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                result.add(line);
+            }
+        } catch (IOException e) {
+            throw error("read", path, e);
+        }
+        return result;
+    }
+
+    // The file is closed once the last line has been read, or by close().
+    static LineIterator openFile(String path) {
+        MappedLines lines = open(path);
+        return new LineIterator(() -> {
+            try {
+                String line = lines.readLine();
+                if (line == null) lines.close();
+                return line;
+            } catch (IOException e) {
+                throw error("read", path, e);
+            }
+        }, () -> {
+            try {
+                lines.close();
+            } catch (IOException e) {
+                throw error("close", path, e);
+            }
+        });
+    }
+
+    private static MappedLines open(String path) {
+        try {
+            return new MappedLines(Paths.get(path), Charset.defaultCharset());
+        } catch (IOException e) {
+            throw error("open", path, e);
+        }
+    }
+
+    private static Interpreter.RuntimeError error(String action, String path, IOException e) {
+        String reason = e instanceof NoSuchFileException ? "no such file" : e.getMessage();
+        return new Interpreter.RuntimeError(null, "Could not " + action + " file '" + path + "': " + reason + ".");
+    }
+}
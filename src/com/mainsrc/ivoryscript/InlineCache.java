@@ -0,0 +1,110 @@
+package com.mainsrc.ivoryscript;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+// Remembers, for the last few shapes seen at one property access site, where
+// the property lives: a field slot, a method of the class, or (for stores)
+// the shape the instance moves to. Shapes belong to a single class and
+// neither shapes nor methods change once created, so entries never go stale
+// within a run. Past MAX_ENTRIES shapes the site is megamorphic, and the
+// lookup returns null so the caller looks the property up itself.
+//
+// Caches hang off the AST, which a Program shares between runs, while
+// shapes and methods belong to one run. A cache only keeps entries for the
+// run whose shapes it saw last and starts over when a newer run uses it.
+// If an older run comes back, runs of the program are overlapping and
+// would keep resetting the cache, so from then on the site is treated as
+// megamorphic. Methods are held weakly so a finished run's closures, and
+// the environments they hold, can be collected; a method stays reachable
+// through its class for as long as an instance with the shape exists.
+final class InlineCache {
+    private static final int MAX_ENTRIES = 4;
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    static final class Entry {
+        final Shape shape;
+        final int slot;
+        private final WeakReference<IvoryScriptFunction> method;
+        final Shape next;
+
+        Entry(Shape shape, int slot, IvoryScriptFunction method, Shape next) {
+            this.shape = shape;
+            this.slot = slot;
+            this.method = method == null ? null : new WeakReference<>(method);
+            this.next = next;
+        }
+
+        IvoryScriptFunction method() {
+            return method == null ? null : method.get();
+        }
+    }
+
+    // The entries and the run they belong to, replaced together rather than
+    // mutated, so a reader always sees complete entries, even on another
+    // thread running the same program.
+    private static final class Entries {
+        final Interpreter.Run run;
+        final Entry[] entries;
+
+        Entries(Interpreter.Run run, Entry[] entries) {
+            this.run = run;
+            this.entries = entries;
+        }
+    }
+
+    // A site shared by overlapping runs: it matches no shape and is full.
+    private static final Entries SHARED = new Entries(null, NO_ENTRIES);
+
+    private volatile Entries entries = new Entries(null, NO_ENTRIES);
+
+    // slot is the field's index, or -1 with method set to whatever the class
+    // has under that name (possibly null).
+    Entry forGet(Shape shape, IvoryScriptClass klass, String name) {
+        Entry entry = find(shape);
+        if (entry != null || isFull(shape)) return entry;
+
+        int slot = shape.indexOf(name);
+        return remember(new Entry(shape, slot, slot < 0 ? klass.findMethod(name) : null, null));
+    }
+
+    // next is the shape after the store and slot the index written to.
+    Entry forSet(Shape shape, String name) {
+        Entry entry = find(shape);
+        if (entry != null || isFull(shape)) return entry;
+
+        int slot = shape.indexOf(name);
+        if (slot >= 0) return remember(new Entry(shape, slot, null, shape));
+        Shape next = shape.withField(name);
+        return remember(new Entry(shape, next.size - 1, null, next));
+    }
+
+    private Entry find(Shape shape) {
+        Entries current = entries;
+        if (current.run != shape.run) return null;
+        for (Entry entry : current.entries) {
+            if (entry.shape == shape) return entry;
+        }
+        return null;
+    }
+
+    private boolean isFull(Shape shape) {
+        Entries current = entries;
+        return current == SHARED || (current.run == shape.run && current.entries.length == MAX_ENTRIES);
+    }
+
+    private Entry remember(Entry entry) {
+        Entries current = entries;
+        Interpreter.Run run = entry.shape.run;
+        if (current.run != null && run.id < current.run.id) {
+            entries = SHARED;
+        } else if (current.run != run) {
+            entries = new Entries(run, new Entry[] {entry});
+        } else {
+            Entry[] grown = Arrays.copyOf(current.entries, current.entries.length + 1);
+            grown[current.entries.length] = entry;
+            entries = new Entries(current.run, grown);
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,56 @@
+package com.mainsrc.ivoryscript;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+// The one reader over stdin. Every input native shares it, so whatever it
+// has read ahead isn't lost between calls. Buffered output is flushed only
+// when a read might block, so a prompt shows up before the script waits on
+// the user, but a script filtering piped input doesn't flush per line.
+final class Input {
+    private static final BufferedReader in = new BufferedReader(new InputStreamReader(System.in), 1 << 16);
+
+    private Input() {}
+
+    // Null at end of input.
+    static synchronized String readLine() {
+        try {
+            if (!in.ready()) Output.flush();
+            return in.readLine();
+        } catch (IOException e) {
+            throw error(e);
+        }
+    }
+
+    static synchronized List<Object> readLines(int count) {
+        List<Object> lines = new ArrayList<>();
+        while (lines.size() < count) {
+            String line = readLine();
+            if (line == null) break;
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    static synchronized String readAll() {
+        try {
+            Output.flush();
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
+            }
+            return text.toString();
+        } catch (IOException e) {
+            throw error(e);
+        }
+    }
+
+    private static Interpreter.RuntimeError error(IOException e) {
+        return new Interpreter.RuntimeError(null, "Error reading input: " + e.getMessage());
+    }
+}
@@ -4,8 +4,7 @@ import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.ArrayList;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.util.concurrent.atomic.AtomicLong;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
@@ -18,9 +17,37 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    // 'disrupt' and 'return' don't throw. They record how the statement
+    // completed and every enclosing block stops running statements until a
+    // loop, choose or function call consumes the signal.
+    private enum Completion {
+        BREAK,
+        RETURN
+    }
+
+    private Completion completion = null;
+    private Object returnValue = null;
+
+    // True if the statement just run ended with 'disrupt' or 'return'. A
+    // disrupt is consumed here; a return keeps unwinding to its call.
+    private boolean completedAbruptly() {
+        if (completion == null) return false;
+        if (completion == Completion.BREAK) completion = null;
+        return true;
+    }
+
+    Object takeReturnValue() {
+        if (completion != Completion.RETURN) return null;
+        Object value = returnValue;
+        completion = null;
+        returnValue = null;
+        return value;
+    }
+
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new BreakException();
+        completion = Completion.BREAK;
+        return null;
     }
     
     @Override
@@ -29,12 +56,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             execute(stmt.initializer);
         }
 
-        try {
-            while (stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
-                execute(stmt.body);
-                if (stmt.increment != null) evaluate(stmt.increment);
-            }
-        } catch (BreakException e) {
+        while (stmt.condition == null || evaluateCondition(stmt.condition)) {
+            execute(stmt.body);
+            if (completedAbruptly()) break;
+            if (stmt.increment != null) evaluate(stmt.increment);
+            Task.checkCancelled();
         }
 
         return null;
@@ -55,40 +81,246 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object conditionValue = evaluate(stmt.condition);
         boolean matched = false;
 
-        try {
-            for (Stmt.Case caseStmt : stmt.cases) {
-                if (matched || isEqual(conditionValue, evaluate(caseStmt.value))) {
-                    matched = true;
-                    executeStmtBody(caseStmt.body);
-                }
+        for (Stmt.Case caseStmt : stmt.cases) {
+            if (matched || isEqual(conditionValue, evaluate(caseStmt.value))) {
+                matched = true;
+                executeStmtBody(caseStmt.body, caseStmt.slotCount);
+                if (completedAbruptly()) return null;
             }
+        }
 
-            if (!matched && stmt.defaultCase != null) {
-                executeStmtBody(stmt.defaultCase.body);
-            }
-        } catch (BreakException e) {
+        if (!matched && stmt.defaultCase != null) {
+            executeStmtBody(stmt.defaultCase.body, stmt.defaultCase.slotCount);
+            completedAbruptly();
         }
 
         return null;
     }
 
-    public Environment environment = new Environment();
+    // Identifies a run, forks included. Shapes carry it so inline caches,
+    // which a Program shares between runs, can tell runs apart without
+    // holding on to anything from them. Ids only grow, so a cache that sees
+    // an older run come back knows runs are overlapping.
+    static final class Run {
+        private static final AtomicLong nextId = new AtomicLong();
+
+        final long id = nextId.getAndIncrement();
+    }
+
+    final Environment globals;
+    final Run run;
+    public Environment environment;
+    // The VM running this interpreter's script, if it runs on the VM.
+    VM vm;
 
     public Interpreter() {
+        this.globals = new Environment();
+        this.run = new Run();
+        this.environment = globals;
         defineGlobals();
     }
 
+    private Interpreter(Environment globals, Run run) {
+        this.globals = globals;
+        this.run = run;
+        this.environment = globals;
+    }
+
+    // A context for running this run's functions on another thread. It
+    // shares the globals but has its own environment chain and completion
+    // state, and on the VM its own stack.
+    Interpreter fork() {
+        Interpreter worker = new Interpreter(globals, run);
+        if (vm != null) vm.fork(worker);
+        return worker;
+    }
+
+    private static String requirePath(String function, Object path) {
+        if (!isString(path)) {
+            throw new RuntimeError(null, function + "() requires a file path string.");
+        }
+        return path.toString();
+    }
+
+    private static IvoryScriptArray requireArray(String function, Object value) {
+        if (value instanceof DictionaryView) return ((DictionaryView) value).toArray();
+        if (!(value instanceof IvoryScriptArray)) {
+            throw new RuntimeError(null, function + "() requires an array.");
+        }
+        return (IvoryScriptArray) value;
+    }
+
     private void defineGlobals() {
-        environment.define("input", new IvoryScriptNativeFunction(0, args -> {
-            try {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-                return reader.readLine();
-            } catch (Exception e) {
-                throw new RuntimeError(null, "Error reading input: " + e.getMessage());
+        globals.define("input", new IvoryScriptNativeFunction(0, args -> Input.readLine()));
+
+        globals.define("readAll", new IvoryScriptNativeFunction(0, args -> Input.readAll()));
+
+        // readLines(count) reads from stdin, readLines(path) reads a file.
+        globals.define("readLines", new IvoryScriptNativeFunction(1, args -> {
+            if (isString(args.get(0))) {
+                return new IvoryScriptArray(FileIO.readLines(args.get(0).toString()));
             }
+            if (!isNumber(args.get(0)) || toDouble(args.get(0)) < 0) {
+                throw new RuntimeError(null, "readLines() requires a non-negative number or a file path.");
+            }
+            return new IvoryScriptArray(Input.readLines(toInt(args.get(0))));
         }));
 
-        environment.define("clock", new IvoryScriptCallable() {
+        globals.define("lines", new IvoryScriptNativeFunction(0, args -> new LineIterator(Input::readLine, () -> {})));
+
+        globals.define("readFile", new IvoryScriptNativeFunction(1, args ->
+                FileIO.readFile(requirePath("readFile", args.get(0)))));
+
+        globals.define("writeFile", new IvoryScriptNativeFunction(2, args -> {
+            FileIO.writeFile(requirePath("writeFile", args.get(0)), stringify(args.get(1)));
+            return null;
+        }));
+
+        globals.define("openFile", new IvoryScriptNativeFunction(1, args ->
+                FileIO.openFile(requirePath("openFile", args.get(0)))));
+
+        // These take the calling interpreter, not this one, since a callback
+        // on a parallel worker can call them from its own forked context.
+        globals.define("parallelMap", new IvoryScriptCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                IvoryScriptArray array = requireArray("parallelMap", arguments.get(0));
+                return Parallel.map(interpreter, array, ArrayMethod.callback("parallelMap", arguments.get(1), 1));
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("parallelForEach", new IvoryScriptCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                IvoryScriptArray array = requireArray("parallelForEach", arguments.get(0));
+                Parallel.forEach(interpreter, array, ArrayMethod.callback("parallelForEach", arguments.get(1), 1));
+                return null;
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("parallelReduce", new IvoryScriptCallable() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                IvoryScriptArray array = requireArray("parallelReduce", arguments.get(0));
+                IvoryScriptCallable function = ArrayMethod.callback("parallelReduce", arguments.get(1), 2);
+                return Parallel.reduce(interpreter, array, function, arguments.get(2));
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        // What a parallel for desugars to a call of; see Parser.parallelForStatement.
+        globals.define("<parallel loop>", new IvoryScriptCallable() {
+            @Override
+            public int arity() {
+                return 7;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return Parallel.loop(interpreter, (IvoryScriptCallable) arguments.get(0), arguments.get(1),
+                        arguments.get(2), arguments.get(3), (Boolean) arguments.get(4),
+                        (IvoryScriptArray) arguments.get(5), (IvoryScriptArray) arguments.get(6));
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        // spawn(fn, args...) calls fn(args...) on another thread, in its own
+        // context forked from the caller's.
+        globals.define("spawn", new IvoryScriptCallable() {
+            @Override
+            public int arity() {
+                return VARIADIC;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return Task.spawn(interpreter, arguments, null);
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("await", new IvoryScriptNativeFunction(1, args -> {
+            if (!(args.get(0) instanceof Task)) {
+                throw new RuntimeError(null, "await() requires a task.");
+            }
+            return ((Task) args.get(0)).await();
+        }));
+
+        globals.define("taskGroup", new IvoryScriptCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return TaskGroup.run(interpreter, ArrayMethod.callback("taskGroup", arguments.get(0), 1));
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        globals.define("channel", new IvoryScriptNativeFunction(1, args -> {
+            Object capacity = args.get(0);
+            if (!isNumber(capacity) || toDouble(capacity) < 1 || toDouble(capacity) != Math.floor(toDouble(capacity))) {
+                throw new RuntimeError(null, "channel() requires a positive whole number capacity.");
+            }
+            return new Channel(toInt(capacity));
+        }));
+
+        globals.define("select", new IvoryScriptNativeFunction(1, args -> {
+            IvoryScriptArray array = requireArray("select", args.get(0));
+            List<Channel> channels = new ArrayList<>();
+            for (int i = 0; i < array.length(); i++) {
+                if (!(array.get(i) instanceof Channel)) {
+                    throw new RuntimeError(null, "select() requires an array of channels.");
+                }
+                channels.add((Channel) array.get(i));
+            }
+            return Channel.select(channels);
+        }));
+
+        globals.define("clock", new IvoryScriptCallable() {
             @Override
             public int arity() {
                 return 0;
@@ -105,33 +337,39 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         });
 
-        environment.define("length", new IvoryScriptNativeFunction(1, args -> {
+        globals.define("length", new IvoryScriptNativeFunction(1, args -> {
             Object value = args.get(0);
-            if (value instanceof String) {
-                return (double) ((String) value).length();
+            if (isString(value)) {
+                return (long) ((CharSequence) value).length();
             } else if (value instanceof IvoryScriptArray) {
-                return (double) ((IvoryScriptArray) value).length();
+                return (long) ((IvoryScriptArray) value).length();
             } else if (value instanceof IvoryScriptDictionary) {
-                return (double) ((IvoryScriptDictionary) value).getEntries().size();
+                return (long) ((IvoryScriptDictionary) value).size();
+            } else if (value instanceof DictionaryView) {
+                return (long) ((DictionaryView) value).length();
             }
             throw new RuntimeError(null, "length() can only be called on strings, arrays, or dictionaries.");
         }));
 
-        environment.define("type", new IvoryScriptNativeFunction(1, args -> {
+        globals.define("type", new IvoryScriptNativeFunction(1, args -> {
             Object value = args.get(0);
             if (value == null) return "nil";
-            if (value instanceof Double) return "number";
-            if (value instanceof String) return "string";
+            if (isNumber(value)) return "number";
+            if (isString(value)) return "string";
             if (value instanceof Boolean) return "boolean";
-            if (value instanceof IvoryScriptArray) return "array";
+            if (value instanceof IvoryScriptArray || value instanceof DictionaryView) return "array";
             if (value instanceof IvoryScriptDictionary) return "dictionary";
             if (value instanceof IvoryScriptFunction) return "function";
             if (value instanceof IvoryScriptClass) return "class";
             if (value instanceof IvoryScriptInstance) return "instance";
+            if (value instanceof LineIterator) return "iterator";
+            if (value instanceof Task) return "task";
+            if (value instanceof TaskGroup) return "task group";
+            if (value instanceof Channel) return "channel";
             return "unknown";
         }));
 
-        environment.define("toString", new IvoryScriptNativeFunction(1, args -> {
+        globals.define("toString", new IvoryScriptNativeFunction(1, args -> {
             return stringify(args.get(0));
         }));
     }
@@ -158,16 +396,27 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             case BANG:
                 return !isTruthy(right);
             case MINUS:
-                if (!(right instanceof Double)) {
-                    throw new RuntimeError(expr.operator, "Operand must be a number.");
-                }
-                return -(double) right;
+                return negate(expr.operator, right);
             default:
                 throw new RuntimeError(expr.operator, "Unknown unary operator.");
         }
     }
 
-    private boolean isTruthy(Object object) {
+    // Integers only stand in for doubles, so anything the double would make
+    // -0 comes out as the Double -0.0, which still prints as -0.
+    static Object negate(Token operator, Object right) {
+        if (right instanceof Long) {
+            long value = (long) right;
+            if (value == Long.MIN_VALUE || value == 0) return -(double) value;
+            return -value;
+        }
+        if (!(right instanceof Double)) {
+            throw new RuntimeError(operator, "Operand must be a number.");
+        }
+        return -(double) right;
+    }
+
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean) object;
         return true;
@@ -175,59 +424,387 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
         switch (expr.operator.type) {
+            case PLUS:
+            case MINUS:
+            case STAR:
+            case SLASH: {
+                // evaluateArithmetic's steps, inlined so that a call in an
+                // operand doesn't cost extra Java frames; operands are even
+                // visited without going through evaluate(). This frame is on
+                // the stack once per level of script recursion, so it keeps
+                // its locals few for the same reason.
+                double left = hasNumberPath(expr.left) ? evaluateNumber(expr.left) : unbox(expr.left.accept(this));
+                if (spilled != NOT_SPILLED) {
+                    return binaryOp(expr.operator.type, expr.operator, takeSpilled(), evaluate(expr.right));
+                }
+                boolean leftIntegral = integral;
+                double right = hasNumberPath(expr.right) ? evaluateNumber(expr.right) : unbox(expr.right.accept(this));
+                if (spilled != NOT_SPILLED) {
+                    return binaryOp(expr.operator.type, expr.operator, box(left, leftIntegral), takeSpilled());
+                }
+                return boxResult(arithmetic(expr.operator, left, leftIntegral, right, integral));
+            }
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return evaluateComparison(expr);
+            default:
+                Object left = evaluate(expr.left);
+                Object right = evaluate(expr.right);
+                return binaryOp(expr.operator.type, expr.operator, left, right);
+        }
+    }
+
+    // Arithmetic and comparisons are evaluated on primitive doubles, so a
+    // chain like a * b + c only boxes its final result. An operand that turns
+    // out not to be a number is handed back through 'spilled' and the
+    // operator falls back to binaryOp with boxed values.
+    //
+    // Integers below 2^53 are exact as doubles, so they take the same path;
+    // 'integral' says whether the value just returned stands for a Long.
+    // Anything that leaves that range is redone in long arithmetic.
+    private static final Object NOT_SPILLED = new Object();
+    private static final double MAX_EXACT = 9007199254740992.0;
+    private Object spilled = NOT_SPILLED;
+    private boolean integral;
+
+    private Object takeSpilled() {
+        Object value = spilled;
+        spilled = NOT_SPILLED;
+        return value;
+    }
+
+    // Whether evaluateNumber has a fast path for this kind of node. Anything
+    // else, calls in particular, is evaluated and unboxed directly, so it
+    // doesn't sit behind an evaluateNumber frame on the Java stack.
+    private static boolean hasNumberPath(Expr expr) {
+        return expr instanceof Expr.Variable || expr instanceof Expr.Literal || expr instanceof Expr.Binary
+                || expr instanceof Expr.Grouping || expr instanceof Expr.Unary || expr instanceof Expr.Index;
+    }
+
+    private static Object box(double value, boolean integral) {
+        return integral ? (Object) (long) value : (Object) value;
+    }
+
+    private Object boxResult(double value) {
+        return spilled != NOT_SPILLED ? takeSpilled() : box(value, integral);
+    }
+
+    private double evaluateNumber(Expr expr) {
+        Object value;
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            value = lookUpVariable(variable.name, variable.depth, variable.slot);
+        } else if (expr instanceof Expr.Literal) {
+            value = ((Expr.Literal) expr).value;
+        } else if (expr instanceof Expr.Binary) {
+            switch (((Expr.Binary) expr).operator.type) {
+                case PLUS:
+                case MINUS:
+                case STAR:
+                case SLASH:
+                    return evaluateArithmetic((Expr.Binary) expr);
+                default:
+                    value = evaluate(expr);
+                    break;
+            }
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateNumber(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.MINUS) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            double operand = evaluateNumber(unary.right);
+            if (spilled != NOT_SPILLED) {
+                spilled = negate(unary.operator, takeSpilled());
+                return 0;
+            }
+            if (operand == 0) integral = false;
+            return -operand;
+        } else if (expr instanceof Expr.Index) {
+            return evaluateIndex((Expr.Index) expr);
+        } else {
+            value = evaluate(expr);
+        }
+        return unbox(value);
+    }
+
+    private double unbox(Object value) {
+        if (value instanceof Double) {
+            integral = false;
+            return (double) value;
+        }
+        if (value instanceof Long) {
+            long number = (long) value;
+            if (number > -MAX_EXACT && number < MAX_EXACT) {
+                integral = true;
+                return number;
+            }
+        }
+        spilled = value;
+        return 0;
+    }
+
+    // Reads numbers straight out of an array's primitive storage, and looks
+    // up integer dictionary keys without boxing them.
+    private double evaluateIndex(Expr.Index expr) {
+        Object object = evaluate(expr.object);
+        double position = evaluateNumber(expr.index);
+        if (spilled != NOT_SPILLED) {
+            spilled = getIndex(object, takeSpilled(), expr.bracket);
+            return 0;
+        }
+        if (object instanceof IvoryScriptArray) {
+            IvoryScriptArray array = (IvoryScriptArray) object;
+            try {
+                Object elements = array.storageFor((int) position);
+                if (elements instanceof double[]) {
+                    integral = false;
+                    return ((double[]) elements)[(int) position];
+                }
+                if (elements instanceof long[]) {
+                    long number = ((long[]) elements)[(int) position];
+                    if (number > -MAX_EXACT && number < MAX_EXACT) {
+                        integral = true;
+                        return number;
+                    }
+                    spilled = number;
+                    return 0;
+                }
+            } catch (RuntimeError error) {
+                throw at(expr.bracket, error);
+            }
+        }
+        Object value = null;
+        if (object instanceof IvoryScriptDictionary && integral) {
+            value = ((IvoryScriptDictionary) object).get((long) position);
+        }
+        if (value == null) value = getIndex(object, box(position, integral), expr.bracket);
+        return unbox(value);
+    }
+
+    private double evaluateArithmetic(Expr.Binary expr) {
+        TokenType type = expr.operator.type;
+        double left = hasNumberPath(expr.left) ? evaluateNumber(expr.left) : unbox(evaluate(expr.left));
+        if (spilled != NOT_SPILLED) {
+            Object leftValue = takeSpilled();
+            spilled = binaryOp(type, expr.operator, leftValue, evaluate(expr.right));
+            return 0;
+        }
+        boolean leftIntegral = integral;
+        double right = hasNumberPath(expr.right) ? evaluateNumber(expr.right) : unbox(evaluate(expr.right));
+        if (spilled != NOT_SPILLED) {
+            spilled = binaryOp(type, expr.operator, box(left, leftIntegral), takeSpilled());
+            return 0;
+        }
+        return arithmetic(expr.operator, left, leftIntegral, right, integral);
+    }
+
+    private double arithmetic(Token operator, double left, boolean leftIntegral, double right, boolean rightIntegral) {
+        TokenType type = operator.type;
+        boolean bothIntegral = leftIntegral && rightIntegral;
+
+        double result;
+        switch (type) {
+            case PLUS: result = left + right; break;
+            case MINUS: result = left - right; break;
+            case STAR: result = left * right; break;
+            default:
+                if (right == 0) {
+                    throw new RuntimeError(operator, "Division by zero.");
+                }
+                result = left / right;
+                if (bothIntegral && (long) left % (long) right != 0) bothIntegral = false;
+                break;
+        }
+        if (result == 0 && Double.doubleToRawLongBits(result) != 0) bothIntegral = false;
+
+        if (bothIntegral && !(result > -MAX_EXACT && result < MAX_EXACT)) {
+            spilled = binaryOp(type, operator, (long) left, (long) right);
+            return 0;
+        }
+        integral = bothIntegral;
+        return result;
+    }
+
+    private boolean evaluateComparison(Expr.Binary expr) {
+        TokenType type = expr.operator.type;
+        double left = hasNumberPath(expr.left) ? evaluateNumber(expr.left) : unbox(evaluate(expr.left));
+        if (spilled != NOT_SPILLED) {
+            Object leftValue = takeSpilled();
+            return (boolean) binaryOp(type, expr.operator, leftValue, evaluate(expr.right));
+        }
+        boolean leftIntegral = integral;
+        double right = hasNumberPath(expr.right) ? evaluateNumber(expr.right) : unbox(evaluate(expr.right));
+        if (spilled != NOT_SPILLED) {
+            return (boolean) binaryOp(type, expr.operator, box(left, leftIntegral), takeSpilled());
+        }
+
+        switch (type) {
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            default: return left <= right;
+        }
+    }
+
+    // Conditions of if, while and for skip boxing the comparison result.
+    private boolean evaluateCondition(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            switch (((Expr.Binary) expr).operator.type) {
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                    return evaluateComparison((Expr.Binary) expr);
+                default:
+                    break;
+            }
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateCondition(((Expr.Grouping) expr).expression);
+        }
+        return isTruthy(evaluate(expr));
+    }
+
+    // Shared with the VM, which passes a null operator and reports the line
+    // from its own line table. Two Longs stay in long arithmetic unless the
+    // result overflows or a division isn't exact; any Double makes it double.
+    static Object binaryOp(TokenType type, Token operator, Object left, Object right) {
+        switch (type) {
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left - (double) right;
+                checkNumberOperands(operator, left, right);
+                if (left instanceof Long && right instanceof Long) {
+                    return subtract((long) left, (long) right);
+                }
+                return toDouble(left) - toDouble(right);
             case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
+                if (left instanceof Long && right instanceof Long) {
+                    return add((long) left, (long) right);
+                }
+                if (isNumber(left) && isNumber(right)) {
+                    return toDouble(left) + toDouble(right);
                 }
-                if (left instanceof String || right instanceof String) {
-                    return left.toString() + right.toString();
+                if (isString(left) || isString(right)) {
+                    return Rope.concat(left, concatText(right));
                 }
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or at least one string.");
+                throw new RuntimeError(operator, "Operands must be two numbers or at least one string.");
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                if ((double) right == 0) {
-                    throw new RuntimeError(expr.operator, "Division by zero.");
+                checkNumberOperands(operator, left, right);
+                if (toDouble(right) == 0) {
+                    throw new RuntimeError(operator, "Division by zero.");
                 }
-                return (double) left / (double) right;
+                if (left instanceof Long && right instanceof Long) {
+                    return divide((long) left, (long) right);
+                }
+                return toDouble(left) / toDouble(right);
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
+                checkNumberOperands(operator, left, right);
+                if (left instanceof Long && right instanceof Long) {
+                    return multiply((long) left, (long) right);
+                }
+                return toDouble(left) * toDouble(right);
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
                 return isEqual(left, right);
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left > (double) right;
+                checkNumberOperands(operator, left, right);
+                if (left instanceof Long && right instanceof Long) return (long) left > (long) right;
+                return toDouble(left) > toDouble(right);
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left >= (double) right;
+                checkNumberOperands(operator, left, right);
+                if (left instanceof Long && right instanceof Long) return (long) left >= (long) right;
+                return toDouble(left) >= toDouble(right);
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left < (double) right;
+                checkNumberOperands(operator, left, right);
+                if (left instanceof Long && right instanceof Long) return (long) left < (long) right;
+                return toDouble(left) < toDouble(right);
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left <= (double) right;
+                checkNumberOperands(operator, left, right);
+                if (left instanceof Long && right instanceof Long) return (long) left <= (long) right;
+                return toDouble(left) <= toDouble(right);
             default:
-                throw new RuntimeError(expr.operator, "Unknown binary operator.");
+                throw new RuntimeError(operator, "Unknown binary operator.");
+        }
+    }
+
+    // Strings built by concatenation may be Ropes; anything that needs the
+    // characters calls toString() on them.
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    static boolean isNumber(Object value) {
+        return value instanceof Long || value instanceof Double;
+    }
+
+    static double toDouble(Object number) {
+        return number instanceof Long ? (double) (long) number : (double) number;
+    }
+
+    // Clamps a number to an int for use as an index or length, the way a
+    // double-to-int cast already did.
+    static int toInt(Object number) {
+        if (number instanceof Long) {
+            long value = (long) number;
+            return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
         }
+        return (int) (double) number;
+    }
+
+    static Object add(long left, long right) {
+        long result = left + right;
+        if (((left ^ result) & (right ^ result)) < 0) return (double) left + (double) right;
+        return result;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static Object subtract(long left, long right) {
+        long result = left - right;
+        if (((left ^ right) & (left ^ result)) < 0) return (double) left - (double) right;
+        return result;
+    }
+
+    static Object multiply(long left, long right) {
+        long high = Math.multiplyHigh(left, right);
+        long result = left * right;
+        if ((high == 0 && result >= 0) || (high == -1 && result < 0)) {
+            return result == 0 && (left | right) < 0 ? (Object) (-0.0) : (Object) result;
+        }
+        return (double) left * (double) right;
+    }
+
+    static Object divide(long left, long right) {
+        if (left == 0 && right < 0) return -0.0;
+        if (left % right == 0 && !(left == Long.MIN_VALUE && right == -1)) return left / right;
+        return (double) left / (double) right;
+    }
+
+    // String concatenation prints Longs the way it always printed numbers.
+    static String concatText(Object value) {
+        if (value instanceof Long) return Double.toString((long) value);
+        return value.toString();
+    }
+
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
+        if (a instanceof Rope) a = a.toString();
+        if (b instanceof Rope) b = b.toString();
+        if (isNumber(a) && isNumber(b)) {
+            if (a instanceof Long && b instanceof Long) return (long) a == (long) b;
+            return numbersEqual(toDouble(a), toDouble(b));
+        }
         return a.equals(b);
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
+    // NaN equals itself, as it did when numbers were compared with
+    // Double.equals.
+    static boolean numbersEqual(double a, double b) {
+        return a == b || (a != a && b != b);
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (isNumber(left) && isNumber(right)) return;
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
@@ -235,26 +812,26 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         stmt.accept(this);
     }
 
-    private void executeStmtBody(Object body) {
-        if (body instanceof Stmt) {
-            execute((Stmt) body);
-        } else if (body instanceof List) {
-            executeBlock((List<Stmt>) body, new Environment(environment));
-        } else {
-            throw new RuntimeError(null, "Invalid statement body in switch/case.");
-        }
+    private void executeStmtBody(List<Stmt> body, int slotCount) {
+        executeBlock(body, new Environment(environment, slotCount));
     }
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        Output.println(stringify(value));
         return null;
     }
 
     static String stringify(Object object) {
         if (object == null) return "nil";
 
+        if (object instanceof Long) {
+            long value = (long) object;
+            if (value > -10_000_000 && value < 10_000_000) return Long.toString(value);
+            object = (double) value;
+        }
+
         if (object instanceof Double) {
             String text = object.toString();
             if (text.endsWith(".0")) text = text.substring(0, text.length() - 2);
@@ -268,13 +845,21 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Void visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) value = evaluate(stmt.initializer);
-        environment.define(stmt.name.lexeme, value);
+        define(stmt.name, stmt.slot, value);
         return null;
     }
 
+    private void define(Token name, int slot, Object value) {
+        if (slot >= 0) {
+            environment.set(slot, value);
+        } else {
+            globals.define(name.lexeme, value);
+        }
+    }
+
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        executeBlock(stmt.statements, new Environment(environment, stmt.slotCount));
         return null;
     }
 
@@ -284,6 +869,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             this.environment = environment;
             for (Stmt statement : statements) {
                 execute(statement);
+                if (completion != null) break;
             }
         } finally {
             this.environment = previous;
@@ -292,7 +878,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) {
+        if (evaluateCondition(stmt.condition)) {
             execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
             execute(stmt.elseBranch);
@@ -302,11 +888,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
-        try {
-            while (isTruthy(evaluate(stmt.condition))) {
-                execute(stmt.body);
-            }
-        } catch (BreakException e) {
+        while (evaluateCondition(stmt.condition)) {
+            execute(stmt.body);
+            if (completedAbruptly()) break;
+            Task.checkCancelled();
         }
         return null;
     }
@@ -314,56 +899,131 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if (expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.slot, value);
+        } else {
+            globals.assign(expr.name, value);
+        }
         return value;
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
+    }
+
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if (depth >= 0) {
+            return environment.getAt(depth, slot);
+        }
+        return globals.get(name);
     }
 
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
-        evaluate(stmt.expression);
+        if (stmt.expression instanceof Expr.IndexAssign) {
+            assignIndex((Expr.IndexAssign) stmt.expression, false);
+        } else {
+            evaluate(stmt.expression);
+        }
         return null;
     }
 
     private void reportRuntimeError(RuntimeError error) {
+        Output.flush();
+        if (error.token == null) {
+            System.err.println("RuntimeError: " + error.getMessage());
+            return;
+        }
         System.err.println("[line " + error.token.line + "] RuntimeError: " + error.getMessage());
     }
 
-    void interpret(List<Stmt> statements) {
+    // Natives, arrays and dictionaries throw without a token since they
+    // don't know where they were used; this reports them at the expression
+    // that used them.
+    static RuntimeError at(Token token, RuntimeError error) {
+        if (error.token != null || token == null) return error;
+        return new RuntimeError(token, error.getMessage());
+    }
+
+    // False if a runtime error stopped the statements.
+    boolean interpret(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
+            return true;
         } catch (RuntimeError error) {
+            completion = null;
             reportRuntimeError(error);
+            return false;
         }
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        try {
+            Object callee;
+            if (expr.callee instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get) expr.callee;
+                Object object = evaluate(get.object);
+                if (object instanceof IvoryScriptInstance) {
+                    IvoryScriptInstance instance = (IvoryScriptInstance) object;
+                    IvoryScriptFunction method = instance.methodFor(get.name, get.cache);
+                    if (method != null) {
+                        return method.callMethod(this, instance, evaluateArguments(expr, method.arity()));
+                    }
+                } else if (isString(object)) {
+                    StringMethod method = StringMethod.find(get.name);
+                    return method.call((CharSequence) object, evaluateArguments(expr, method.arity));
+                } else if (object instanceof IvoryScriptArray || object instanceof DictionaryView) {
+                    ArrayMethod method = ArrayMethod.find(get.name.lexeme);
+                    if (method != null) {
+                        return method.call(this, method.receiver(object), evaluateArguments(expr, method.arity));
+                    }
+                } else if (object instanceof IvoryScriptDictionary) {
+                    DictionaryMethod method = DictionaryMethod.find(get.name.lexeme);
+                    if (method != null) {
+                        return method.call((IvoryScriptDictionary) object, evaluateArguments(expr, method.arity));
+                    }
+                }
+                callee = getProperty(object, get.name, get.cache);
+            } else {
+                callee = evaluate(expr.callee);
+            }
+
+            List<Object> arguments = new ArrayList<>();
+            for (Expr argument : expr.arguments) {
+                arguments.add(evaluate(argument));
+            }
+            if (!(callee instanceof IvoryScriptCallable)) {
+                throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            }
+            IvoryScriptCallable function = (IvoryScriptCallable) callee;
+            if (arguments.size() != function.arity() && function.arity() != IvoryScriptCallable.VARIADIC) {
+                throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+            }
+            return function.call(this, arguments);
+        } catch (RuntimeError error) {
+            throw at(expr.paren, error);
+        }
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr, int arity) {
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments) {
             arguments.add(evaluate(argument));
         }
-        if (!(callee instanceof IvoryScriptCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
-        }
-        IvoryScriptCallable function = (IvoryScriptCallable) callee;
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        if (arguments.size() != arity) {
+            throw new RuntimeError(expr.paren, "Expected " + arity + " arguments but got " + arguments.size() + ".");
         }
-        return function.call(this, arguments);
+        return arguments;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
         IvoryScriptFunction function = new IvoryScriptFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, function);
+        define(stmt.name, stmt.slot, function);
         return null;
     }
     
@@ -373,7 +1033,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (stmt.value != null) {
             value = evaluate(stmt.value);
         }
-        throw new Return(value);
+        returnValue = value;
+        completion = Completion.RETURN;
+        return null;
     }
 
     @Override
@@ -386,12 +1048,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        define(stmt.name, stmt.slot, null);
     
         Environment previous = this.environment;
-        Environment methodEnvironment = new Environment(environment);
+        Environment methodEnvironment = new Environment(environment, stmt.superclass != null ? 1 : 0);
         if (stmt.superclass != null) {
-            methodEnvironment.define("super", superclass);
+            methodEnvironment.set(0, superclass);
         }
         this.environment = methodEnvironment;
     
@@ -403,33 +1065,52 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     
         this.environment = previous;
     
-        IvoryScriptClass klass = new IvoryScriptClass(stmt.name.lexeme, (IvoryScriptClass) superclass, methods);
-        environment.assign(stmt.name, klass);
+        IvoryScriptClass klass = new IvoryScriptClass(stmt.name.lexeme, (IvoryScriptClass) superclass, methods, run);
+        define(stmt.name, stmt.slot, klass);
     
         return null;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return getProperty(evaluate(expr.object), expr.name, expr.cache);
+    }
+
+    static Object getProperty(Object object, Token name, InlineCache cache) {
         if (object instanceof IvoryScriptInstance) {
-            return ((IvoryScriptInstance) object).get(expr.name);
+            return ((IvoryScriptInstance) object).get(name, cache);
         }
-        if (object instanceof String) {
-            IvoryScriptString str = new IvoryScriptString((String) object);
-            Object property = str.getProperty(expr.name.lexeme);
-            if (property != null) {
-                return property;
-            }
-            throw new RuntimeError(expr.name, "String has no property '" + expr.name.lexeme + "'.");
+        if (isString(object)) {
+            return StringMethod.find(name).bind((CharSequence) object);
+        }
+        if (object instanceof IvoryScriptArray) {
+            if (name.lexeme.equals("length")) return (long) ((IvoryScriptArray) object).length();
+            ArrayMethod method = ArrayMethod.find(name.lexeme);
+            if (method != null) return method.bind((IvoryScriptArray) object);
+        }
+        if (object instanceof DictionaryView) {
+            if (name.lexeme.equals("length")) return (long) ((DictionaryView) object).length();
+            ArrayMethod method = ArrayMethod.find(name.lexeme);
+            if (method != null) return method.bind(method.receiver(object));
         }
-        if (object instanceof IvoryScriptArray && expr.name.lexeme.equals("length")) {
-            return (double) ((IvoryScriptArray) object).length();
+        if (object instanceof IvoryScriptDictionary) {
+            if (name.lexeme.equals("length")) return (long) ((IvoryScriptDictionary) object).size();
+            DictionaryMethod method = DictionaryMethod.find(name.lexeme);
+            if (method != null) return method.bind((IvoryScriptDictionary) object);
         }
-        if (object instanceof IvoryScriptDictionary && expr.name.lexeme.equals("length")) {
-            return (double) ((IvoryScriptDictionary) object).getEntries().size();
+        if (object instanceof LineIterator) {
+            return ((LineIterator) object).getProperty(name);
         }
-        throw new RuntimeError(expr.name, "Only instances, strings, arrays, and dictionaries have properties.");
+        if (object instanceof Task) {
+            return ((Task) object).getProperty(name);
+        }
+        if (object instanceof TaskGroup) {
+            return ((TaskGroup) object).getProperty(name);
+        }
+        if (object instanceof Channel) {
+            return ((Channel) object).getProperty(name);
+        }
+        throw new RuntimeError(name, "Only instances, strings, arrays, and dictionaries have properties.");
     }
 
     @Override
@@ -439,21 +1120,19 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             throw new RuntimeError(expr.name, "Only instances have fields.");
         }
         Object value = evaluate(expr.value);
-        ((IvoryScriptInstance) object).set(expr.name, value);
+        ((IvoryScriptInstance) object).set(expr.name, value, expr.cache);
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        Token superToken = new Token(TokenType.SUPER, "super", null, expr.keyword.line);
-        Object superclassObj = environment.get(superToken);
+        Object superclassObj = lookUpVariable(expr.keyword, expr.depth, expr.slot);
         if (!(superclassObj instanceof IvoryScriptClass)) {
             throw new RuntimeError(expr.keyword, "Can't use 'super' outside of a class.");
         }
         IvoryScriptClass superclass = (IvoryScriptClass) superclassObj;
         
-        Token thisToken = new Token(TokenType.THIS, "this", null, expr.keyword.line);
-        Object thisObj = environment.get(thisToken);
+        Object thisObj = environment.getAt(expr.depth - 1, 0);
         if (!(thisObj instanceof IvoryScriptInstance)) {
             throw new RuntimeError(expr.keyword, "Can't use 'super' outside of an instance method.");
         }
@@ -468,7 +1147,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return environment.get(expr.keyword);
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot);
     }
 
     @Override
@@ -485,71 +1164,118 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         IvoryScriptDictionary dict = new IvoryScriptDictionary();
         for (int i = 0; i < expr.keys.size(); i++) {
             Object key = evaluate(expr.keys.get(i));
-            if (!(key instanceof String)) {
-                throw new RuntimeError(null, "Dictionary keys must be strings.");
-            }
+            checkDictionaryKey(key, expr.brace);
             Object value = evaluate(expr.values.get(i));
-            dict.set((String) key, value);
+            dict.set(key, value);
         }
         return dict;
     }
 
+    static void checkDictionaryKey(Object key, Token token) {
+        if (!IvoryScriptDictionary.isKey(key)) {
+            throw new RuntimeError(token, "Dictionary keys must be strings, numbers, booleans or nil.");
+        }
+    }
+
     @Override
     public Object visitIndexExpr(Expr.Index expr) {
         Object object = evaluate(expr.object);
         Object index = evaluate(expr.index);
+        return getIndex(object, index, expr.bracket);
+    }
 
+    static Object getIndex(Object object, Object index, Token bracket) {
         if (object instanceof IvoryScriptArray) {
-            if (!(index instanceof Double)) {
-                throw new RuntimeError(expr.bracket, "Array index must be a number.");
+            if (!isNumber(index)) {
+                throw new RuntimeError(bracket, "Array index must be a number.");
             }
-            int idx = ((Double) index).intValue();
-            return ((IvoryScriptArray) object).get(idx);
-        } else if (object instanceof IvoryScriptDictionary) {
-            if (!(index instanceof String)) {
-                throw new RuntimeError(expr.bracket, "Dictionary key must be a string.");
+            int idx = toInt(index);
+            try {
+                return ((IvoryScriptArray) object).get(idx);
+            } catch (RuntimeError error) {
+                throw at(bracket, error);
             }
-            Object value = ((IvoryScriptDictionary) object).get((String) index);
+        } else if (object instanceof IvoryScriptDictionary) {
+            checkDictionaryKey(index, bracket);
+            IvoryScriptDictionary dictionary = (IvoryScriptDictionary) object;
+            Object value = index instanceof Long ? dictionary.get((long) index) : dictionary.get(index);
             if (value == null) {
-                throw new RuntimeError(expr.bracket, "Key '" + index + "' not found in dictionary.");
+                throw new RuntimeError(bracket, "Key '" + stringify(index) + "' not found in dictionary.");
             }
             return value;
-        } else if (object instanceof String) {
-            if (!(index instanceof Double)) {
-                throw new RuntimeError(expr.bracket, "String index must be a number.");
+        } else if (object instanceof DictionaryView) {
+            if (!isNumber(index)) {
+                throw new RuntimeError(bracket, "Array index must be a number.");
+            }
+            try {
+                return ((DictionaryView) object).get(toInt(index));
+            } catch (RuntimeError error) {
+                throw at(bracket, error);
             }
-            int idx = ((Double) index).intValue();
-            String str = (String) object;
+        } else if (isString(object)) {
+            if (!isNumber(index)) {
+                throw new RuntimeError(bracket, "String index must be a number.");
+            }
+            int idx = toInt(index);
+            String str = object.toString();
             if (idx < 0 || idx >= str.length()) {
-                throw new RuntimeError(expr.bracket, "String index out of bounds.");
+                throw new RuntimeError(bracket, "String index out of bounds.");
             }
             return String.valueOf(str.charAt(idx));
         }
 
-        throw new RuntimeError(expr.bracket, "Can only index arrays, dictionaries, and strings.");
+        throw new RuntimeError(bracket, "Can only index arrays, dictionaries, and strings.");
     }
 
     @Override
     public Object visitIndexAssignExpr(Expr.IndexAssign expr) {
+        return assignIndex(expr, true);
+    }
+
+    // A number stored into an array goes into its primitive storage without
+    // being boxed, unless the assignment's own value is wanted.
+    private Object assignIndex(Expr.IndexAssign expr, boolean needValue) {
         Object object = evaluate(expr.object);
         Object index = evaluate(expr.index);
+        if (object instanceof IvoryScriptArray && isNumber(index)) {
+            double number = evaluateNumber(expr.value);
+            if (spilled == NOT_SPILLED) {
+                try {
+                    ((IvoryScriptArray) object).setNumber(toInt(index), number, integral);
+                } catch (RuntimeError error) {
+                    throw at(expr.bracket, error);
+                }
+                return needValue ? box(number, integral) : null;
+            }
+            return setIndex(object, index, takeSpilled(), expr.bracket);
+        }
         Object value = evaluate(expr.value);
+        return setIndex(object, index, value, expr.bracket);
+    }
 
+    static Object setIndex(Object object, Object index, Object value, Token bracket) {
         if (object instanceof IvoryScriptArray) {
-            if (!(index instanceof Double)) {
-                throw new RuntimeError(expr.bracket, "Array index must be a number.");
+            if (!isNumber(index)) {
+                throw new RuntimeError(bracket, "Array index must be a number.");
+            }
+            int idx = toInt(index);
+            try {
+                ((IvoryScriptArray) object).set(idx, value);
+            } catch (RuntimeError error) {
+                throw at(bracket, error);
             }
-            int idx = ((Double) index).intValue();
-            ((IvoryScriptArray) object).set(idx, value);
             return value;
         } else if (object instanceof IvoryScriptDictionary) {
-            if (!(index instanceof String)) {
-                throw new RuntimeError(expr.bracket, "Dictionary key must be a string.");
+            checkDictionaryKey(index, bracket);
+            IvoryScriptDictionary dictionary = (IvoryScriptDictionary) object;
+            if (index instanceof Long) {
+                dictionary.set((long) index, value);
+            } else {
+                dictionary.set(index, value);
             }
-            ((IvoryScriptDictionary) object).set((String) index, value);
             return value;
         }
 
-        throw new RuntimeError(expr.bracket, "Can only assign to array or dictionary indices.");
+        throw new RuntimeError(bracket, "Can only assign to array or dictionary indices.");
     }
 }
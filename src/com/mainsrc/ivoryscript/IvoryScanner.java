@@ -34,13 +34,15 @@ public class IvoryScanner {
     }
 
     private final String source;
+    private final ErrorReporter errors;
     private final List<Token> tokens = new ArrayList<>();
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    public IvoryScanner(String source) {
+    IvoryScanner(String source, ErrorReporter errors) {
         this.source = source;
+        this.errors = errors;
     }
 
     public List<Token> scanTokens() {
@@ -119,7 +121,7 @@ public class IvoryScanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    IvoryScript.error(line, "Unexpected character: " + c);
+                    errors.error(line, "Unexpected character: " + c);
                 }
                 break;
         }
@@ -184,6 +186,14 @@ public class IvoryScanner {
         }
 
         String text = source.substring(start, current);
+        if (text.indexOf('.') < 0) {
+            try {
+                addToken(NUMBER, Long.parseLong(text));
+                return;
+            } catch (NumberFormatException e) {
+                // Too big for a long; fall back to a double.
+            }
+        }
         addToken(NUMBER, Double.parseDouble(text));
     }
 
@@ -1,66 +1,67 @@
 package com.mainsrc.ivoryscript;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class IvoryScript {
-	static boolean hadError = false;
-	public static final Interpreter interpreter  = new Interpreter();
+	// Interpreter state lives in the Interpreter (or VM) each run creates, and
+	// compile errors in each Program, so nothing here is shared between runs.
+	private static boolean useVm = false;
 	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equals("--vm")) {
+			useVm = true;
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
 		if (args.length > 1) {
-			System.out.println("Usage: ivory [script]");
+			System.out.println("Usage: ivory [--vm] [script]");
 			System.exit(64); 
 		} else if (args.length == 1) {
 			runFile(args[0]);
 		} else {
 			runPrompt();
 		}
+		Output.flush();
 	}
 	private static void runFile(String path) throws IOException {
 		byte[] bytes = Files.readAllBytes(Paths.get(path));
-		run(new String(bytes, Charset.defaultCharset()));
+		Interpreter interpreter = new Interpreter();
+		boolean compiled = run(new String(bytes, Charset.defaultCharset()), interpreter, useVm ? new VM(interpreter) : null);
 
-		if (hadError) System.exit(65);
+		if (!compiled) {
+			Output.flush();
+			System.exit(65);
+		}
 
 	}
-	private static void runPrompt() throws IOException {
-		InputStreamReader input = new InputStreamReader(System.in);
-		BufferedReader reader = new BufferedReader(input);
+	// Lines are read through Input, the same reader input() uses, so a
+	// script line and the data it reads can't race for buffered stdin.
+	private static void runPrompt() {
+		Interpreter interpreter = new Interpreter();
+		VM vm = useVm ? new VM(interpreter) : null;
 
 		for (;;) {
-			System.out.print("> ");
-			String line = reader.readLine();
+			Output.print("> ");
+			String line = Input.readLine();
 			if (line == null) {
 				break;
 			} 
-			run(line);
-			hadError = false;
+			run(line, interpreter, vm);
 		}
 	}
 
-	private static void run(String source) {
-		IvoryScanner scanner = new IvoryScanner(source);
-		List<Token> tokens = scanner.scanTokens();
-
-		Parser parser = new Parser(tokens);
-		List<Stmt> statements = parser.parse();
-	
-		if (hadError) return;
-
-		interpreter.interpret(statements);
-	}
-	static void error(int line, String message) {
-		report(line, "", message);
-	}
-	private static void report(int line, String where, String message) {
-		System.err.println("[line" + line + "] Error" + where + ": " + message);
-		hadError = true;
+	// False if the source had compile errors.
+	private static boolean run(String source, Interpreter interpreter, VM vm) {
+		Program program = Program.compile(source);
+		if (program.hadError()) return false;
 
+		if (vm != null) {
+			return vm.interpret(program.statements);
+		}
+		interpreter.interpret(program.statements);
+		return true;
 	}
 }
@@ -1,50 +1,278 @@
 package com.mainsrc.ivoryscript;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Predicate;
 
+// Arrays keep their elements unboxed while they can. An array of integers
+// lives in a long[]; once a non-integer number is stored it moves to a
+// double[], and the first non-number moves it to an Object[]. It never moves
+// back. Integers in a double[] read back as doubles, which only differs from
+// a Long past 2^53, so an integer that large sends the array to Object[].
+//
+// Parallel code can write to one array from several threads, so every change
+// holds the array's lock and a moved array is only published through the
+// volatile storage field once it is filled in. Reads don't lock; they see
+// either the old or the new backing array, both complete. Writes to
+// different indices are never lost, but two threads writing the same index
+// at once still race.
 public class IvoryScriptArray {
-    private final List<Object> elements;
+    private static final long MAX_EXACT = 1L << 53;
+
+    // A long[], double[] or Object[] with room for size elements. It is
+    // replaced before size grows, so readers read size first.
+    private volatile Object storage;
+    private volatile int size;
 
     public IvoryScriptArray(List<Object> elements) {
-        this.elements = new ArrayList<>(elements);
+        storage = new long[elements.size()];
+        size = elements.size();
+        for (int i = 0; i < size; i++) {
+            store(i, elements.get(i));
+        }
+    }
+
+    private IvoryScriptArray(Object storage, int size) {
+        this.storage = storage;
+        this.size = size;
     }
 
     public Object get(int index) {
-        if (index < 0 || index >= elements.size()) {
-            throw new Interpreter.RuntimeError(null, "Array index out of bounds.");
+        return element(storageFor(index), index);
+    }
+
+    public synchronized void set(int index, Object value) {
+        checkIndex(index);
+        store(index, value);
+    }
+
+    public synchronized void add(Object value) {
+        int capacity = capacity(storage);
+        if (size == capacity) grow(Math.max(8, capacity * 2));
+        store(size, value);
+        size++;
+    }
+
+    public int length() {
+        return size;
+    }
+
+    synchronized Object removeLast() {
+        if (size == 0) {
+            throw new Interpreter.RuntimeError(null, "Cannot pop from an empty array.");
         }
-        return elements.get(index);
+        Object last = get(size - 1);
+        size--;
+        if (storage instanceof Object[]) ((Object[]) storage)[size] = null;
+        return last;
     }
 
-    public void set(int index, Object value) {
-        if (index < 0 || index >= elements.size()) {
-            throw new Interpreter.RuntimeError(null, "Array index out of bounds.");
+    IvoryScriptArray slice(int start, int end) {
+        Object storage = this.storage;
+        if (storage instanceof long[]) return new IvoryScriptArray(Arrays.copyOfRange((long[]) storage, start, end), end - start);
+        if (storage instanceof double[]) return new IvoryScriptArray(Arrays.copyOfRange((double[]) storage, start, end), end - start);
+        return new IvoryScriptArray(Arrays.copyOfRange((Object[]) storage, start, end), end - start);
+    }
+
+    synchronized void addAll(IvoryScriptArray other) {
+        int count = other.size;
+        Object source = other.storage;
+        int capacity = capacity(storage);
+        if (size + count > capacity) grow(Math.max(size + count, capacity * 2));
+        Object target = storage;
+        if (target instanceof long[] && source instanceof long[]) {
+            System.arraycopy(source, 0, target, size, count);
+            size += count;
+        } else if (target instanceof double[] && source instanceof double[]) {
+            System.arraycopy(source, 0, target, size, count);
+            size += count;
+        } else {
+            for (int i = 0; i < count; i++) {
+                store(size, element(source, i));
+                size++;
+            }
         }
-        elements.set(index, value);
     }
 
-    public void add(Object value) {
-        elements.add(value);
+    synchronized void fill(Object value) {
+        if (size == 0) return;
+        store(0, value);
+        Object storage = this.storage;
+        if (storage instanceof long[]) {
+            long[] longs = (long[]) storage;
+            Arrays.fill(longs, 0, size, longs[0]);
+        } else if (storage instanceof double[]) {
+            double[] doubles = (double[]) storage;
+            Arrays.fill(doubles, 0, size, doubles[0]);
+        } else {
+            Arrays.fill((Object[]) storage, 0, size, value);
+        }
     }
 
-    public int length() {
-        return elements.size();
+    // Numbers sort numerically and strings lexicographically; an array
+    // mixing the two, or holding anything else, can't be sorted.
+    synchronized void sort() {
+        Object storage = this.storage;
+        if (storage instanceof long[]) {
+            Arrays.sort((long[]) storage, 0, size);
+            return;
+        }
+        if (storage instanceof double[]) {
+            Arrays.sort((double[]) storage, 0, size);
+            return;
+        }
+        Object[] objects = (Object[]) storage;
+        if (allMatch(objects, Interpreter::isNumber)) {
+            Arrays.sort(objects, 0, size, (a, b) -> compareNumbers(a, b));
+        } else if (allMatch(objects, Interpreter::isString)) {
+            for (int i = 0; i < size; i++) {
+                objects[i] = objects[i].toString();
+            }
+            Arrays.sort(objects, 0, size);
+        } else {
+            throw new Interpreter.RuntimeError(null, "sort() requires an array of all numbers or all strings.");
+        }
     }
 
-    public List<Object> getElements() {
-        return elements;
+    private boolean allMatch(Object[] objects, Predicate<Object> test) {
+        for (int i = 0; i < size; i++) {
+            if (!test.test(objects[i])) return false;
+        }
+        return true;
+    }
+
+    private static int compareNumbers(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) return Long.compare((long) a, (long) b);
+        return Double.compare(Interpreter.toDouble(a), Interpreter.toDouble(b));
+    }
+
+    int indexOf(Object value) {
+        int size = this.size;
+        Object storage = this.storage;
+        if (storage instanceof long[] && value instanceof Long) {
+            long[] longs = (long[]) storage;
+            long target = (long) value;
+            for (int i = 0; i < size; i++) {
+                if (longs[i] == target) return i;
+            }
+            return -1;
+        }
+        for (int i = 0; i < size; i++) {
+            if (Interpreter.isEqual(element(storage, i), value)) return i;
+        }
+        return -1;
+    }
+
+    // The current backing array, for callers that read the element at index
+    // unboxed. Checking its type and reading from it has to use this one
+    // snapshot, as another thread may move the array at any time.
+    Object storageFor(int index) {
+        checkIndex(index);
+        return storage;
+    }
+
+    // Stores a number the interpreter computed unboxed.
+    synchronized void setNumber(int index, double value, boolean integral) {
+        checkIndex(index);
+        Object storage = this.storage;
+        if (storage instanceof long[] && !integral) storage = toDoubles((long[]) storage);
+        if (storage instanceof long[]) {
+            ((long[]) storage)[index] = (long) value;
+        } else if (storage instanceof double[]) {
+            ((double[]) storage)[index] = value;
+        } else {
+            ((Object[]) storage)[index] = integral ? (Object) (long) value : (Object) value;
+        }
+    }
+
+    // Called with the lock held.
+    private void store(int index, Object value) {
+        Object storage = this.storage;
+        if (storage instanceof long[]) {
+            if (value instanceof Long) {
+                ((long[]) storage)[index] = (long) value;
+                return;
+            }
+            storage = value instanceof Double ? toDoubles((long[]) storage) : toObjects(storage);
+        }
+        if (storage instanceof double[]) {
+            if (value instanceof Double) {
+                ((double[]) storage)[index] = (double) value;
+                return;
+            }
+            if (value instanceof Long && isExact((long) value)) {
+                ((double[]) storage)[index] = (long) value;
+                return;
+            }
+            storage = toObjects(storage);
+        }
+        ((Object[]) storage)[index] = value;
+    }
+
+    private Object toDoubles(long[] longs) {
+        for (int i = 0; i < size; i++) {
+            if (!isExact(longs[i])) return toObjects(longs);
+        }
+        double[] doubles = new double[longs.length];
+        for (int i = 0; i < size; i++) {
+            doubles[i] = longs[i];
+        }
+        storage = doubles;
+        return doubles;
+    }
+
+    private static boolean isExact(long value) {
+        return value > -MAX_EXACT && value < MAX_EXACT;
+    }
+
+    private Object[] toObjects(Object from) {
+        Object[] objects = new Object[capacity(from)];
+        for (int i = 0; i < size; i++) {
+            objects[i] = element(from, i);
+        }
+        storage = objects;
+        return objects;
+    }
+
+    private void grow(int capacity) {
+        Object storage = this.storage;
+        if (storage instanceof long[]) {
+            this.storage = Arrays.copyOf((long[]) storage, capacity);
+        } else if (storage instanceof double[]) {
+            this.storage = Arrays.copyOf((double[]) storage, capacity);
+        } else {
+            this.storage = Arrays.copyOf((Object[]) storage, capacity);
+        }
+    }
+
+    private static int capacity(Object storage) {
+        if (storage instanceof long[]) return ((long[]) storage).length;
+        if (storage instanceof double[]) return ((double[]) storage).length;
+        return ((Object[]) storage).length;
+    }
+
+    private static Object element(Object storage, int index) {
+        if (storage instanceof long[]) return ((long[]) storage)[index];
+        if (storage instanceof double[]) return ((double[]) storage)[index];
+        return ((Object[]) storage)[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new Interpreter.RuntimeError(null, "Array index out of bounds.");
+        }
     }
 
     @Override
     public String toString() {
+        int size = this.size;
+        Object storage = this.storage;
         StringBuilder sb = new StringBuilder("[");
-        for (int i = 0; i < elements.size(); i++) {
+        for (int i = 0; i < size; i++) {
             if (i > 0) sb.append(", ");
-            sb.append(Interpreter.stringify(elements.get(i)));
+            sb.append(Interpreter.stringify(element(storage, i)));
         }
         sb.append("]");
         return sb.toString();
     }
 }
-
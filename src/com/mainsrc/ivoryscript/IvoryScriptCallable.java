@@ -3,6 +3,10 @@ package com.mainsrc.ivoryscript;
 import java.util.List;
 
 public interface IvoryScriptCallable {
+    // Arity of a native that takes any number of arguments and checks them
+    // itself.
+    int VARIADIC = -1;
+
     int arity();
 
     Object call(Interpreter interpreter, List<Object> arguments);
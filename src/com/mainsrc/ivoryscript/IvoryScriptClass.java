@@ -1,38 +1,49 @@
 package com.mainsrc.ivoryscript;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 
 class IvoryScriptClass implements IvoryScriptCallable {
     final String name;
     final IvoryScriptClass superclass;
+    // Every method callable on an instance, inherited ones included. Classes
+    // can't change after they are defined, so this is built once up front.
     private final Map<String, IvoryScriptFunction> methods;
-
-    IvoryScriptClass(String name, IvoryScriptClass superclass, Map<String, IvoryScriptFunction> methods) {
+    final IvoryScriptFunction initializer;
+    private final int arity;
+    final Shape rootShape;
+    // Most fields any instance has had so far; new instances start with room
+    // for that many so they rarely grow.
+    int fieldCapacity = 0;
+
+    IvoryScriptClass(String name, IvoryScriptClass superclass, Map<String, IvoryScriptFunction> methods, Interpreter.Run run) {
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+        this.rootShape = new Shape(run);
+
+        Map<String, IvoryScriptFunction> table = new HashMap<>();
+        if (superclass != null) table.putAll(superclass.methods);
+        table.putAll(methods);
+        this.methods = Map.copyOf(table);
+        this.initializer = this.methods.get("init");
+        this.arity = initializer == null ? 0 : initializer.arity();
     }
 
-    public IvoryScriptFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
+    void noteFieldCount(int count) {
+        if (count > fieldCapacity) fieldCapacity = count;
+    }
 
-        return null;
+    public IvoryScriptFunction findMethod(String name) {
+        return methods.get(name);
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         IvoryScriptInstance instance = new IvoryScriptInstance(this);
 
-        IvoryScriptFunction initializer = findMethod("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.callMethod(interpreter, instance, arguments);
         }
 
         return instance;
@@ -40,8 +51,7 @@ class IvoryScriptClass implements IvoryScriptCallable {
 
     @Override
     public int arity() {
-        IvoryScriptFunction initializer = findMethod("init");
-        return initializer == null ? 0 : initializer.arity();
+        return arity;
     }
 
     @Override
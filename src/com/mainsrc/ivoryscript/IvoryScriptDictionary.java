@@ -1,43 +1,262 @@
 package com.mainsrc.ivoryscript;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+// Entries are kept in insertion order in three parallel arrays, with each
+// key's hash stored next to it so lookups compare ints before keys and
+// resizing never rehashes a key. Small dictionaries are searched by a scan
+// of the hashes; once they outgrow SCAN_LIMIT they also get an
+// open-addressing index of entry positions, probed linearly.
+//
+// Keys are strings, numbers, booleans or nil, compared the way == compares
+// them, so 1 and 1.0 are the same key. Integer keys can be looked up
+// without boxing.
+//
+// Removing a key leaves a hole (a DELETED key) that lookups skip. Holes are
+// squeezed out before anything reads entries by position, or when the
+// arrays fill up and enough of them are holes.
+//
+// keys(), values() and entries() share the key and value arrays instead of
+// copying them. The next change that would write over what a view can see
+// copies the arrays first, so a view keeps showing the entries as they were
+// when it was made.
 public class IvoryScriptDictionary {
-    private final Map<String, Object> entries;
+    private static final int SCAN_LIMIT = 8;
+    private static final int[] NO_HASHES = new int[0];
+    private static final Object[] NO_KEYS = new Object[0];
+    private static final Object[] NO_VALUES = new Object[0];
+    private static final Object DELETED = new Object();
 
-    public IvoryScriptDictionary() {
-        this.entries = new HashMap<>();
+    private int[] hashes = NO_HASHES;
+    private Object[] keys = NO_KEYS;
+    private Object[] values = NO_VALUES;
+    // Entries in use, holes included, and entries actually present.
+    private int used;
+    private int size;
+    // Entry position plus one, so 0 marks an empty slot. Always at least
+    // twice the entry capacity.
+    private int[] index;
+    // Whether a DictionaryView may still be reading keys and values.
+    private boolean shared;
+
+    static boolean isKey(Object key) {
+        return key == null || Interpreter.isString(key) || Interpreter.isNumber(key) || key instanceof Boolean;
+    }
+
+    public Object get(Object key) {
+        if (key instanceof Rope) key = key.toString();
+        int entry = find(key, hash(key));
+        return entry < 0 ? null : values[entry];
+    }
+
+    Object get(long key) {
+        int entry = find(key);
+        return entry < 0 ? null : values[entry];
+    }
+
+    public void set(Object key, Object value) {
+        if (key instanceof Rope) key = key.toString();
+        int hash = hash(key);
+        int entry = find(key, hash);
+        if (entry >= 0) {
+            unshare();
+            values[entry] = value;
+            return;
+        }
+        add(key, hash, value);
+    }
+
+    void set(long key, Object value) {
+        int entry = find(key);
+        if (entry >= 0) {
+            unshare();
+            values[entry] = value;
+            return;
+        }
+        add(key, hash(key), value);
+    }
+
+    private void add(Object key, int hash, Object value) {
+        if (used == keys.length) {
+            if (size < used && size <= used * 3 / 4) {
+                compact();
+            } else {
+                grow();
+            }
+        }
+        hashes[used] = hash;
+        keys[used] = key;
+        values[used] = value;
+        if (index != null) insert(hash, used);
+        used++;
+        size++;
+    }
+
+    public boolean containsKey(Object key) {
+        if (key instanceof Rope) key = key.toString();
+        return find(key, hash(key)) >= 0;
     }
 
-    public Object get(String key) {
-        return entries.get(key);
+    // Returns the removed value, or null if the key wasn't there.
+    Object remove(Object key) {
+        if (key instanceof Rope) key = key.toString();
+        int entry = find(key, hash(key));
+        if (entry < 0) return null;
+        unshare();
+        Object value = values[entry];
+        keys[entry] = DELETED;
+        values[entry] = null;
+        size--;
+        return value;
     }
 
-    public void set(String key, Object value) {
-        entries.put(key, value);
+    void putAll(IvoryScriptDictionary other) {
+        for (int i = 0; i < other.used; i++) {
+            if (other.keys[i] != DELETED) set(other.keys[i], other.values[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    DictionaryView view(DictionaryView.Kind kind) {
+        if (used != size) compact();
+        shared = true;
+        return new DictionaryView(keys, values, size, kind);
+    }
+
+    // Adding only writes past the end of what any view sees, so it is the
+    // one change that doesn't need this.
+    private void unshare() {
+        if (!shared) return;
+        keys = keys.clone();
+        values = values.clone();
+        shared = false;
+    }
+
+    // Numbers hash by their double value, integral ones as the equal long,
+    // so every pair of numbers == calls equal hashes alike.
+    private static int hash(Object key) {
+        int h;
+        if (Interpreter.isNumber(key)) {
+            double number = Interpreter.toDouble(key);
+            long integer = (long) number;
+            h = integer == number ? Long.hashCode(integer) : Double.hashCode(number);
+        } else {
+            h = key == null ? 0 : key.hashCode();
+        }
+        return h ^ (h >>> 16);
     }
 
-    public boolean containsKey(String key) {
-        return entries.containsKey(key);
+    private static int hash(long key) {
+        int h = Long.hashCode((long) (double) key);
+        return h ^ (h >>> 16);
     }
 
-    public Map<String, Object> getEntries() {
-        return entries;
+    private static boolean keysEqual(Object a, Object b) {
+        if (a == b) return true;
+        if (a == null || b == null || b == DELETED) return false;
+        if (Interpreter.isNumber(a)) return Interpreter.isNumber(b) && Interpreter.isEqual(a, b);
+        return a.equals(b);
+    }
+
+    private static boolean keysEqual(long a, Object b) {
+        if (b instanceof Long) return (long) b == a;
+        return b instanceof Double && Interpreter.numbersEqual(a, (double) b);
+    }
+
+    private int find(Object key, int hash) {
+        if (index == null) {
+            for (int i = 0; i < used; i++) {
+                if (hashes[i] == hash && keysEqual(key, keys[i])) return i;
+            }
+            return -1;
+        }
+
+        int mask = index.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = index[slot] - 1;
+            if (entry < 0) return -1;
+            if (hashes[entry] == hash && keysEqual(key, keys[entry])) return entry;
+        }
+    }
+
+    private int find(long key) {
+        int hash = hash(key);
+        if (index == null) {
+            for (int i = 0; i < used; i++) {
+                if (hashes[i] == hash && keysEqual(key, keys[i])) return i;
+            }
+            return -1;
+        }
+
+        int mask = index.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = index[slot] - 1;
+            if (entry < 0) return -1;
+            if (hashes[entry] == hash && keysEqual(key, keys[entry])) return entry;
+        }
+    }
+
+    private void insert(int hash, int entry) {
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = entry + 1;
+    }
+
+    private void compact() {
+        unshare();
+        int live = 0;
+        for (int i = 0; i < used; i++) {
+            if (keys[i] == DELETED) continue;
+            hashes[live] = hashes[i];
+            keys[live] = keys[i];
+            values[live] = values[i];
+            live++;
+        }
+        Arrays.fill(keys, live, used, null);
+        Arrays.fill(values, live, used, null);
+        used = live;
+        if (index != null) reindex();
+    }
+
+    private void grow() {
+        int capacity = Math.max(4, keys.length * 2);
+        hashes = Arrays.copyOf(hashes, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        shared = false;
+        if (capacity > SCAN_LIMIT) {
+            index = new int[capacity * 2];
+            reindex();
+        }
+    }
+
+    private void reindex() {
+        Arrays.fill(index, 0);
+        for (int i = 0; i < used; i++) {
+            insert(hashes[i], i);
+        }
     }
 
     @Override
     public String toString() {
+        if (used != size) compact();
         StringBuilder sb = new StringBuilder("{");
-        boolean first = true;
-        for (Map.Entry<String, Object> entry : entries.entrySet()) {
-            if (!first) sb.append(", ");
-            first = false;
-            sb.append("\"").append(entry.getKey()).append("\": ");
-            sb.append(Interpreter.stringify(entry.getValue()));
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            if (Interpreter.isString(keys[i])) {
+                sb.append("\"").append(keys[i]).append("\": ");
+            } else {
+                sb.append(Interpreter.stringify(keys[i])).append(": ");
+            }
+            sb.append(Interpreter.stringify(values[i]));
         }
         sb.append("}");
         return sb.toString();
     }
 }
-
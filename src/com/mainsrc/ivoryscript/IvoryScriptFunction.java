@@ -3,8 +3,13 @@ package com.mainsrc.ivoryscript;
 import java.util.List;
 
 public class IvoryScriptFunction implements IvoryScriptCallable {
+    // Calls after which the body is handed to JitCompiler.
+    private static final int JIT_THRESHOLD = 1000;
+
     private final Stmt.Function declaration;
     private final Environment closure;
+    private int calls = 0;
+    private volatile CompiledFunction compiled;
 
     public IvoryScriptFunction(Stmt.Function declaration, Environment closure) {
         this.declaration = declaration;
@@ -17,8 +22,8 @@ public class IvoryScriptFunction implements IvoryScriptCallable {
     }
 
     public IvoryScriptFunction bind(IvoryScriptInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
+        Environment environment = new Environment(closure, 1);
+        environment.set(0, instance);
         return new IvoryScriptFunction(declaration, environment);
     }
 
@@ -27,19 +32,58 @@ public class IvoryScriptFunction implements IvoryScriptCallable {
         return declaration.params.size();
     }
 
+    // call and callMethod each run the body themselves rather than through a
+    // shared helper, so every script-level call costs one fewer Java frame
+    // and deep recursion doesn't overflow any sooner than it has to.
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+        Object result = runCompiled(interpreter, arguments);
+        if (result != NOT_COMPILED) return result;
+
+        interpreter.executeBlock(declaration.body, frame(closure, arguments));
+        return interpreter.takeReturnValue();
+    }
+
+    // Calls the function as a method of instance without allocating a bound
+    // copy of it first.
+    Object callMethod(Interpreter interpreter, IvoryScriptInstance instance, List<Object> arguments) {
+        Object result = runCompiled(interpreter, arguments);
+        if (result != NOT_COMPILED) return result;
+
+        Environment environment = new Environment(closure, 1);
+        environment.set(0, instance);
+        interpreter.executeBlock(declaration.body, frame(environment, arguments));
+        return interpreter.takeReturnValue();
+    }
+
+    private static final Object NOT_COMPILED = new Object();
+
+    // Counts the call towards compiling the body and runs the compiled body
+    // when it takes these arguments. NOT_COMPILED if the call has to be
+    // interpreted.
+    private Object runCompiled(Interpreter interpreter, List<Object> arguments) {
+        Task.checkCancelled();
+        if (calls < JIT_THRESHOLD && ++calls == JIT_THRESHOLD) {
+            compiled = JitCompiler.compile(declaration);
         }
+        CompiledFunction compiled = this.compiled;
+        if (compiled != null && compiled.accepts(interpreter, this, arguments)) {
+            try {
+                return compiled.invoke(arguments);
+            } catch (CompiledFunction.Inexact e) {
+                // Only this call needs the interpreter; later calls can
+                // still run compiled.
+            }
+        }
+        return NOT_COMPILED;
+    }
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+    private Environment frame(Environment enclosing, List<Object> arguments) {
+        Environment environment = new Environment(enclosing, declaration.slotCount);
+        for (int i = 0; i < declaration.params.size(); i++) {
+            environment.set(i, arguments.get(i));
         }
-        return null;
+        return environment;
     }
 
     @Override
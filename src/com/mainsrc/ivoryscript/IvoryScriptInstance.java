@@ -1,35 +1,70 @@
 package com.mainsrc.ivoryscript;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class IvoryScriptInstance {
+    private static final Object[] NO_FIELDS = new Object[0];
+
     private final IvoryScriptClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Shape shape;
+    private Object[] values;
 
     IvoryScriptInstance(IvoryScriptClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
+        int capacity = klass.fieldCapacity;
+        this.values = capacity == 0 ? NO_FIELDS : new Object[capacity];
     }
 
-    Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
-        }
-    
-        IvoryScriptFunction method = klass.findMethod(name.lexeme);
-        if (method != null) {
-            return method.bind(this);
+    // A null entry means the site is megamorphic and the property is looked
+    // up directly.
+    Object get(Token name, InlineCache cache) {
+        InlineCache.Entry entry = cache.forGet(shape, klass, name.lexeme);
+        int slot = entry != null ? entry.slot : shape.indexOf(name.lexeme);
+        if (slot >= 0) return values[slot];
+        return checkMethod(entry != null ? entry.method() : klass.findMethod(name.lexeme), name).bind(this);
+    }
+
+    // The method obj.name(...) should run, or null when name is a field and
+    // its value gets called instead.
+    IvoryScriptFunction methodFor(Token name, InlineCache cache) {
+        InlineCache.Entry entry = cache.forGet(shape, klass, name.lexeme);
+        int slot = entry != null ? entry.slot : shape.indexOf(name.lexeme);
+        if (slot >= 0) return null;
+        return checkMethod(entry != null ? entry.method() : klass.findMethod(name.lexeme), name);
+    }
+
+    private static IvoryScriptFunction checkMethod(IvoryScriptFunction method, Token name) {
+        if (method == null) {
+            throw new Interpreter.RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
         }
-    
-        throw new Interpreter.RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        return method;
     }
 
-    void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+    void set(Token name, Object value, InlineCache cache) {
+        InlineCache.Entry entry = cache.forSet(shape, name.lexeme);
+        int slot;
+        Shape next;
+        if (entry != null) {
+            slot = entry.slot;
+            next = entry.next;
+        } else {
+            slot = shape.indexOf(name.lexeme);
+            next = slot >= 0 ? shape : shape.withField(name.lexeme);
+            if (slot < 0) slot = next.size - 1;
+        }
+        if (next != shape) {
+            if (values.length < next.size) {
+                values = Arrays.copyOf(values, Math.max(next.size, values.length * 2));
+            }
+            shape = next;
+            klass.noteFieldCount(shape.size);
+        }
+        values[slot] = value;
     }
 
     @Override
     public String toString() {
         return "<instance of " + klass.name + ">";
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,677 @@
+package com.mainsrc.ivoryscript;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Translates the body of a hot function into a JVM method so HotSpot can
+// compile and inline it like any other Java code. Only a numeric subset is
+// handled: parameters and locals that hold numbers, arithmetic, comparisons
+// in conditions, if/while/for/disrupt, return and calls of the function to
+// itself. Anything else makes compile() return null and the function keeps
+// being interpreted. print isn't handled, so a call that turns out to need
+// the interpreter after all can be rerun there without printing twice.
+//
+// Compiled code can't tell a Long from a whole Double, so which one a call
+// returns is worked out ahead of time for every mix of Long and Double
+// arguments, following the interpreter's rules.
+//
+// The class file is written by hand (version 49, so no stack map frames are
+// needed) and loaded as a hidden class extending CompiledFunction.
+final class JitCompiler {
+    private static final String SUPER_CLASS = "com/mainsrc/ivoryscript/CompiledFunction";
+    private static final String THIS_CLASS = "com/mainsrc/ivoryscript/JitFunction";
+    private static final String TOKEN = "Lcom/mainsrc/ivoryscript/Token;";
+    // Bounds the 2^n argument signatures results() works through.
+    private static final int MAX_PARAMETERS = 8;
+
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static class Label {
+        int position = -1;
+        final List<Integer> branches = new ArrayList<>();
+    }
+
+    private static class Loop {
+        final Label end = new Label();
+        boolean broken = false;
+    }
+
+    private final Stmt.Function declaration;
+    private final ConstantPool pool = new ConstantPool();
+    private final List<Token> tokens = new ArrayList<>();
+    private final List<int[]> scopes = new ArrayList<>();
+    private final List<Loop> loops = new ArrayList<>();
+    private final String runDescriptor;
+    private final Map<Expr, Integer> variables = new IdentityHashMap<>();
+    private final Map<Integer, List<Expr>> assignments = new HashMap<>();
+    private final List<Expr> returns = new ArrayList<>();
+
+    private ByteArrayOutputStream code;
+    private int stack;
+    private int maxStack;
+    private int nextLocal;
+    private boolean reachable;
+    private boolean recursive;
+    private int[] parameters;
+
+    private JitCompiler(Stmt.Function declaration) {
+        this.declaration = declaration;
+        StringBuilder descriptor = new StringBuilder("(");
+        for (int i = 0; i < declaration.params.size(); i++) {
+            descriptor.append('D');
+        }
+        this.runDescriptor = descriptor.append(")D").toString();
+    }
+
+    // Compiled code depends only on the declaration, so it is compiled once
+    // and shared by every closure of it, in every run of the program.
+    static CompiledFunction compile(Stmt.Function declaration) {
+        synchronized (declaration) {
+            if (!declaration.jitAttempted) {
+                declaration.jitAttempted = true;
+                try {
+                    declaration.compiled = new JitCompiler(declaration).define();
+                } catch (Unsupported | ReflectiveOperationException | LinkageError e) {
+                    declaration.compiled = null;
+                }
+            }
+            return declaration.compiled;
+        }
+    }
+
+    private CompiledFunction define() throws ReflectiveOperationException {
+        byte[] run = compileRun();
+        int runMaxStack = maxStack;
+        int runMaxLocals = nextLocal;
+        byte[] invoke = compileInvoke();
+        int invokeMaxStack = maxStack;
+        byte[] init = compileInit();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            int thisClass = pool.classRef(THIS_CLASS);
+            int superClass = pool.classRef(SUPER_CLASS);
+            int codeName = pool.utf8("Code");
+            int[][] methods = {
+                {pool.utf8("<init>"), pool.utf8("()V"), 1, 1},
+                {pool.utf8("run"), pool.utf8(runDescriptor), runMaxStack, runMaxLocals},
+                {pool.utf8("invoke"), pool.utf8("(Ljava/util/List;)Ljava/lang/Object;"), invokeMaxStack, 2},
+            };
+            byte[][] bodies = {init, run, invoke};
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.write(out);
+            out.writeShort(0x0030); // ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methods.length);
+            for (int i = 0; i < methods.length; i++) {
+                out.writeShort(0);
+                out.writeShort(methods[i][0]);
+                out.writeShort(methods[i][1]);
+                out.writeShort(1);
+                out.writeShort(codeName);
+                out.writeInt(12 + bodies[i].length);
+                out.writeShort(methods[i][2]);
+                out.writeShort(methods[i][3]);
+                out.writeInt(bodies[i].length);
+                out.write(bodies[i]);
+                out.writeShort(0);
+                out.writeShort(0);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes.toByteArray(), true);
+        CompiledFunction compiled = (CompiledFunction) lookup.lookupClass().getDeclaredConstructor().newInstance();
+        compiled.tokens = tokens.toArray(new Token[0]);
+        compiled.name = declaration.name.lexeme;
+        compiled.recursive = recursive;
+        compiled.results = results();
+        return compiled;
+    }
+
+    private void begin() {
+        code = new ByteArrayOutputStream();
+        stack = 0;
+        maxStack = 0;
+    }
+
+    private byte[] compileInit() {
+        begin();
+        emit(0x2a, 1); // aload_0
+        emit(0xb7, -1); // invokespecial
+        emitShort(pool.methodRef(SUPER_CLASS, "<init>", "()V"));
+        emit(0xb1, 0); // return
+        return code.toByteArray();
+    }
+
+    private byte[] compileInvoke() {
+        begin();
+        int arity = declaration.params.size();
+        emit(0x2a, 1); // aload_0
+        emit(0x2a, 1); // aload_0
+        for (int i = 0; i < arity; i++) {
+            emit(0x2b, 1); // aload_1
+            emitInt(i);
+            emit(0xb9, -1); // invokeinterface
+            emitShort(pool.interfaceMethodRef("java/util/List", "get", "(I)Ljava/lang/Object;"));
+            code.write(2);
+            code.write(0);
+            emit(0xc0, 0); // checkcast
+            emitShort(pool.classRef("java/lang/Number"));
+            emit(0xb6, 1); // invokevirtual
+            emitShort(pool.methodRef("java/lang/Number", "doubleValue", "()D"));
+        }
+        emit(0xb6, 1 - 2 * arity); // invokevirtual
+        emitShort(pool.methodRef(THIS_CLASS, "run", runDescriptor));
+        emit(0x2b, 1); // aload_1
+        emit(0xb6, -3); // invokevirtual
+        emitShort(pool.methodRef(SUPER_CLASS, "box", "(DLjava/util/List;)Ljava/lang/Object;"));
+        emit(0xb0, -1); // areturn
+        return code.toByteArray();
+    }
+
+    private byte[] compileRun() {
+        if (declaration.params.size() > MAX_PARAMETERS) throw new Unsupported();
+        begin();
+        nextLocal = 1;
+        int[] scope = newScope(declaration.slotCount);
+        parameters = new int[declaration.params.size()];
+        for (int i = 0; i < parameters.length; i++) {
+            scope[i] = nextLocal;
+            parameters[i] = nextLocal;
+            nextLocal += 2;
+        }
+        reachable = true;
+        statements(declaration.body);
+        if (reachable) {
+            // Falling off the end returns nil, which a double can't hold.
+            throw new Unsupported();
+        }
+        scopes.remove(scopes.size() - 1);
+        if (code.size() > Short.MAX_VALUE || nextLocal > 0xff) throw new Unsupported();
+        return code.toByteArray();
+    }
+
+    private int[] newScope(int size) {
+        int[] scope = new int[size];
+        Arrays.fill(scope, -1);
+        scopes.add(scope);
+        return scope;
+    }
+
+    private void statements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (!reachable) return;
+            statement(statement);
+        }
+    }
+
+    private void statement(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression) {
+            Expr expression = ((Stmt.Expression) stmt).expression;
+            if (expression instanceof Expr.Assign) {
+                Expr.Assign assign = (Expr.Assign) expression;
+                number(assign.value);
+                emitLocal(0x39, -2, assigned(assign)); // dstore
+            } else {
+                number(expression);
+                emit(0x58, -2); // pop2
+            }
+        } else if (stmt instanceof Stmt.Var) {
+            Stmt.Var var = (Stmt.Var) stmt;
+            if (var.initializer == null) throw new Unsupported();
+            number(var.initializer);
+            int local = nextLocal;
+            nextLocal += 2;
+            emitLocal(0x39, -2, local); // dstore
+            scopes.get(scopes.size() - 1)[var.slot] = local;
+            assignments.computeIfAbsent(local, key -> new ArrayList<>()).add(var.initializer);
+        } else if (stmt instanceof Stmt.Block) {
+            Stmt.Block block = (Stmt.Block) stmt;
+            newScope(block.slotCount);
+            statements(block.statements);
+            scopes.remove(scopes.size() - 1);
+        } else if (stmt instanceof Stmt.If) {
+            ifStatement((Stmt.If) stmt);
+        } else if (stmt instanceof Stmt.While) {
+            Stmt.While loop = (Stmt.While) stmt;
+            loop(loop.condition, loop.body, null);
+        } else if (stmt instanceof Stmt.For) {
+            Stmt.For loop = (Stmt.For) stmt;
+            if (loop.initializer != null) statement(loop.initializer);
+            loop(loop.condition, loop.body, loop.increment);
+        } else if (stmt instanceof Stmt.Break) {
+            if (loops.isEmpty()) throw new Unsupported();
+            Loop loop = loops.get(loops.size() - 1);
+            loop.broken = true;
+            jump(0xa7, 0, loop.end); // goto
+            reachable = false;
+        } else if (stmt instanceof Stmt.Return) {
+            Stmt.Return ret = (Stmt.Return) stmt;
+            if (ret.value == null) throw new Unsupported();
+            number(ret.value);
+            returns.add(ret.value);
+            emit(0xaf, -2); // dreturn
+            reachable = false;
+        } else {
+            throw new Unsupported();
+        }
+    }
+
+    private void ifStatement(Stmt.If stmt) {
+        Label elseBranch = new Label();
+        branch(stmt.condition, false, elseBranch);
+        statement(stmt.thenBranch);
+        boolean thenReachable = reachable;
+
+        if (stmt.elseBranch == null) {
+            mark(elseBranch);
+            reachable = true;
+            return;
+        }
+
+        Label end = new Label();
+        if (thenReachable) jump(0xa7, 0, end); // goto
+        mark(elseBranch);
+        reachable = true;
+        statement(stmt.elseBranch);
+        mark(end);
+        reachable = reachable || thenReachable;
+    }
+
+    private void loop(Expr condition, Stmt body, Expr increment) {
+        Loop loop = new Loop();
+        loops.add(loop);
+
+        Label start = new Label();
+        mark(start);
+        boolean infinite = condition == null || isTrue(condition);
+        if (!infinite) branch(condition, false, loop.end);
+        statement(body);
+        if (reachable) {
+            if (increment != null) statement(new Stmt.Expression(increment));
+            invokeStatic("checkCancelled", "()V", 0);
+            jump(0xa7, 0, start); // goto
+        }
+        mark(loop.end);
+
+        loops.remove(loops.size() - 1);
+        reachable = !infinite || loop.broken;
+    }
+
+    private static boolean isTrue(Expr expr) {
+        while (expr instanceof Expr.Grouping) {
+            expr = ((Expr.Grouping) expr).expression;
+        }
+        return expr instanceof Expr.Literal && Boolean.TRUE.equals(((Expr.Literal) expr).value);
+    }
+
+    // Jumps to target when the condition's truth equals jumpIf, falls
+    // through otherwise.
+    private void branch(Expr expr, boolean jumpIf, Label target) {
+        if (expr instanceof Expr.Grouping) {
+            branch(((Expr.Grouping) expr).expression, jumpIf, target);
+        } else if (expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Boolean) {
+            if ((Boolean) ((Expr.Literal) expr).value == jumpIf) jump(0xa7, 0, target); // goto
+        } else if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.BANG) {
+            branch(((Expr.Unary) expr).right, !jumpIf, target);
+        } else if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            TokenType type = binary.operator.type;
+            if (type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL) {
+                number(binary.left);
+                number(binary.right);
+                invokeStatic("equal", "(DD)Z", -3);
+                boolean jumpIfEqual = jumpIf == (type == TokenType.EQUAL_EQUAL);
+                jump(jumpIfEqual ? 0x9a : 0x99, -1, target); // ifne : ifeq
+                return;
+            }
+
+            // dcmpg turns NaN into 1 and dcmpl into -1, so both leave
+            // every comparison involving NaN false.
+            int compare;
+            int jumpWhenTrue;
+            int jumpWhenFalse;
+            switch (type) {
+                case LESS: compare = 0x98; jumpWhenTrue = 0x9b; jumpWhenFalse = 0x9c; break;
+                case LESS_EQUAL: compare = 0x98; jumpWhenTrue = 0x9e; jumpWhenFalse = 0x9d; break;
+                case GREATER: compare = 0x97; jumpWhenTrue = 0x9d; jumpWhenFalse = 0x9e; break;
+                case GREATER_EQUAL: compare = 0x97; jumpWhenTrue = 0x9c; jumpWhenFalse = 0x9b; break;
+                default: throw new Unsupported();
+            }
+            number(binary.left);
+            number(binary.right);
+            emit(compare, -3);
+            jump(jumpIf ? jumpWhenTrue : jumpWhenFalse, -1, target);
+        } else {
+            throw new Unsupported();
+        }
+    }
+
+    private void number(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) expr).value;
+            if (value instanceof Long && Math.abs((long) value) >= 1L << 53) throw new Unsupported();
+            if (!(value instanceof Double || value instanceof Long)) throw new Unsupported();
+            emit(0x14, 2); // ldc2_w
+            emitShort(pool.doubleConstant(((Number) value).doubleValue()));
+        } else if (expr instanceof Expr.Grouping) {
+            number(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            if (unary.operator.type != TokenType.MINUS) throw new Unsupported();
+            number(unary.right);
+            emit(0x77, 0); // dneg
+            invokeStatic("notNegativeZero", "(D)D", 0);
+        } else if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            number(binary.left);
+            number(binary.right);
+            switch (binary.operator.type) {
+                case PLUS:
+                    emit(0x63, -2); // dadd
+                    invokeStatic("exact", "(D)D", 0);
+                    break;
+                case MINUS:
+                    emit(0x67, -2); // dsub
+                    invokeStatic("exact", "(D)D", 0);
+                    break;
+                case STAR:
+                    emit(0x6b, -2); // dmul
+                    invokeStatic("exact", "(D)D", 0);
+                    invokeStatic("notNegativeZero", "(D)D", 0);
+                    break;
+                case SLASH:
+                    emit(0x2a, 1); // aload_0
+                    emit(0xb4, 0); // getfield
+                    emitShort(pool.fieldRef(SUPER_CLASS, "tokens", "[" + TOKEN));
+                    emitInt(tokens.size());
+                    emit(0x32, -1); // aaload
+                    tokens.add(binary.operator);
+                    invokeStatic("divide", "(DD" + TOKEN + ")D", -3);
+                    break;
+                default: throw new Unsupported();
+            }
+        } else if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            int local = local(variable.depth, variable.slot);
+            variables.put(variable, local);
+            emitLocal(0x18, 2, local); // dload
+        } else if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            number(assign.value);
+            emit(0x5c, 2); // dup2
+            emitLocal(0x39, -2, assigned(assign)); // dstore
+        } else if (expr instanceof Expr.Call) {
+            selfCall((Expr.Call) expr);
+        } else {
+            throw new Unsupported();
+        }
+    }
+
+    private void selfCall(Expr.Call call) {
+        if (!(call.callee instanceof Expr.Variable)) throw new Unsupported();
+        Expr.Variable callee = (Expr.Variable) call.callee;
+        if (callee.depth >= 0 || !callee.name.lexeme.equals(declaration.name.lexeme)) throw new Unsupported();
+        if (call.arguments.size() != declaration.params.size()) throw new Unsupported();
+
+        recursive = true;
+        emit(0x2a, 1); // aload_0
+        for (Expr argument : call.arguments) {
+            number(argument);
+        }
+        emit(0xb6, 1 - 2 * call.arguments.size()); // invokevirtual
+        emitShort(pool.methodRef(THIS_CLASS, "run", runDescriptor));
+    }
+
+    private int assigned(Expr.Assign assign) {
+        int local = local(assign.depth, assign.slot);
+        assignments.computeIfAbsent(local, key -> new ArrayList<>()).add(assign.value);
+        return local;
+    }
+
+    // For every signature, a bit set of which arguments are Longs, the kinds
+    // of number the interpreter could return. A variable can hold any kind
+    // ever assigned to it, wherever the assignment is, and self-calls use
+    // the results of whichever signatures their arguments could make up, so
+    // everything is repeated until nothing grows any more.
+    private int[] results() {
+        int[] results = new int[1 << parameters.length];
+        int[][] kinds = new int[results.length][nextLocal];
+        for (int signature = 0; signature < results.length; signature++) {
+            for (int i = 0; i < parameters.length; i++) {
+                kinds[signature][parameters[i]] = (signature & 1 << i) != 0
+                        ? CompiledFunction.INTEGRAL : CompiledFunction.DOUBLE;
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int signature = 0; signature < results.length; signature++) {
+                int[] locals = kinds[signature];
+                for (Map.Entry<Integer, List<Expr>> entry : assignments.entrySet()) {
+                    int kind = locals[entry.getKey()];
+                    for (Expr value : entry.getValue()) {
+                        kind |= kind(value, locals, results);
+                    }
+                    changed |= kind != locals[entry.getKey()];
+                    locals[entry.getKey()] = kind;
+                }
+                int result = results[signature];
+                for (Expr value : returns) {
+                    result |= kind(value, locals, results);
+                }
+                changed |= result != results[signature];
+                results[signature] = result;
+            }
+        }
+        return results;
+    }
+
+    // Only called on expressions number() has compiled.
+    private int kind(Expr expr, int[] locals, int[] results) {
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal) expr).value instanceof Long
+                    ? CompiledFunction.INTEGRAL : CompiledFunction.DOUBLE;
+        } else if (expr instanceof Expr.Grouping) {
+            return kind(((Expr.Grouping) expr).expression, locals, results);
+        } else if (expr instanceof Expr.Unary) {
+            return kind(((Expr.Unary) expr).right, locals, results);
+        } else if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            int left = kind(binary.left, locals, results);
+            int right = kind(binary.right, locals, results);
+            if (left == 0 || right == 0) return 0;
+            int kind = (left & right & CompiledFunction.INTEGRAL) | ((left | right) & CompiledFunction.DOUBLE);
+            // Dividing integers only stays integral when it comes out even.
+            if (binary.operator.type == TokenType.SLASH && (kind & CompiledFunction.INTEGRAL) != 0) {
+                kind |= CompiledFunction.DOUBLE;
+            }
+            return kind;
+        } else if (expr instanceof Expr.Variable) {
+            return locals[variables.get(expr)];
+        } else if (expr instanceof Expr.Assign) {
+            return kind(((Expr.Assign) expr).value, locals, results);
+        }
+
+        List<Expr> arguments = ((Expr.Call) expr).arguments;
+        int[] argumentKinds = new int[arguments.size()];
+        for (int i = 0; i < argumentKinds.length; i++) {
+            argumentKinds[i] = kind(arguments.get(i), locals, results);
+        }
+        int kind = 0;
+        signatures:
+        for (int signature = 0; signature < results.length; signature++) {
+            for (int i = 0; i < argumentKinds.length; i++) {
+                int wanted = (signature & 1 << i) != 0 ? CompiledFunction.INTEGRAL : CompiledFunction.DOUBLE;
+                if ((argumentKinds[i] & wanted) == 0) continue signatures;
+            }
+            kind |= results[signature];
+        }
+        return kind;
+    }
+
+    // Maps a resolved (depth, slot) pair to a JVM local. Anything declared
+    // outside this function, including globals, is not supported.
+    private int local(int depth, int slot) {
+        if (depth < 0 || depth >= scopes.size()) throw new Unsupported();
+        int local = scopes.get(scopes.size() - 1 - depth)[slot];
+        if (local < 0) throw new Unsupported();
+        return local;
+    }
+
+    private void invokeStatic(String name, String descriptor, int stackEffect) {
+        emit(0xb8, stackEffect); // invokestatic
+        emitShort(pool.methodRef(SUPER_CLASS, name, descriptor));
+    }
+
+    private void emit(int opcode, int stackEffect) {
+        code.write(opcode);
+        stack += stackEffect;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void emitShort(int value) {
+        code.write(value >> 8);
+        code.write(value);
+    }
+
+    private void emitInt(int value) {
+        if (value > Short.MAX_VALUE) throw new Unsupported();
+        emit(0x11, 1); // sipush
+        emitShort(value);
+    }
+
+    private void emitLocal(int opcode, int stackEffect, int local) {
+        emit(opcode, stackEffect);
+        code.write(local);
+    }
+
+    private void jump(int opcode, int stackEffect, Label target) {
+        int position = code.size();
+        emit(opcode, stackEffect);
+        if (target.position >= 0) {
+            emitShort(target.position - position);
+            return;
+        }
+        target.branches.add(position);
+        emitShort(0);
+    }
+
+    private void mark(Label label) {
+        label.position = code.size();
+        byte[] bytes = code.toByteArray();
+        for (int branch : label.branches) {
+            int offset = label.position - branch;
+            bytes[branch + 1] = (byte) (offset >> 8);
+            bytes[branch + 2] = (byte) offset;
+        }
+        code.reset();
+        code.write(bytes, 0, bytes.length);
+        label.branches.clear();
+    }
+
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            Integer index = entries.get("U" + value);
+            if (index != null) return index;
+            try {
+                out.writeByte(1);
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return add("U" + value, 1);
+        }
+
+        int classRef(String name) {
+            return reference(7, "C" + name, utf8(name), -1);
+        }
+
+        int nameAndType(String name, String descriptor) {
+            return reference(12, "N" + name + ":" + descriptor, utf8(name), utf8(descriptor));
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return reference(9, "F" + owner + "." + name + ":" + descriptor,
+                    classRef(owner), nameAndType(name, descriptor));
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return reference(10, "M" + owner + "." + name + ":" + descriptor,
+                    classRef(owner), nameAndType(name, descriptor));
+        }
+
+        int interfaceMethodRef(String owner, String name, String descriptor) {
+            return reference(11, "I" + owner + "." + name + ":" + descriptor,
+                    classRef(owner), nameAndType(name, descriptor));
+        }
+
+        int doubleConstant(double value) {
+            String key = "D" + Double.doubleToRawLongBits(value);
+            Integer index = entries.get(key);
+            if (index != null) return index;
+            try {
+                out.writeByte(6);
+                out.writeDouble(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return add(key, 2);
+        }
+
+        private int reference(int tag, String key, int first, int second) {
+            Integer index = entries.get(key);
+            if (index != null) return index;
+            try {
+                out.writeByte(tag);
+                out.writeShort(first);
+                if (second >= 0) out.writeShort(second);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return add(key, 1);
+        }
+
+        private int add(String key, int size) {
+            int index = count;
+            entries.put(key, index);
+            count += size;
+            return index;
+        }
+
+        void write(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            target.write(bytes.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.function.Supplier;
+
+// What lines() and openFile() return: hands out lines one at a time as the
+// script asks for them. hasNext() reads the next line ahead so it can tell
+// whether the input has ended.
+class LineIterator {
+    private final Supplier<String> source;
+    private final Runnable closer;
+    private String next;
+    private boolean fetched;
+    private boolean closed;
+
+    private final IvoryScriptCallable hasNext = new IvoryScriptNativeFunction(0, args -> {
+        fetch();
+        return next != null;
+    });
+
+    private final IvoryScriptCallable nextLine = new IvoryScriptNativeFunction(0, args -> {
+        fetch();
+        fetched = false;
+        return next;
+    });
+
+    private final IvoryScriptCallable close = new IvoryScriptNativeFunction(0, args -> {
+        close();
+        return null;
+    });
+
+    LineIterator(Supplier<String> source, Runnable closer) {
+        this.source = source;
+        this.closer = closer;
+    }
+
+    private void fetch() {
+        if (!fetched) {
+            next = closed ? null : source.get();
+            if (next == null) closed = true;
+            fetched = true;
+        }
+    }
+
+    private void close() {
+        if (!closed) {
+            closed = true;
+            closer.run();
+        }
+    }
+
+    Object getProperty(Token name) {
+        switch (name.lexeme) {
+            case "hasNext":
+                return hasNext;
+            case "next":
+                return nextLine;
+            case "close":
+                return close;
+            default:
+                throw new Interpreter.RuntimeError(name, "Line iterator has no property '" + name.lexeme + "'.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<line iterator>";
+    }
+}
@@ -0,0 +1,85 @@
+package com.mainsrc.ivoryscript;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Reads a file line by line through a memory-mapped window that slides
+// along it, so only the current line is ever copied onto the heap, however
+// large the file is. A line longer than the window makes the window grow
+// to fit it.
+final class MappedLines implements Closeable {
+    private static final int WINDOW = 64 << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final Charset charset;
+    private MappedByteBuffer window;
+    private long windowStart;
+    // Where the next line starts, counted from the start of the file.
+    private long position;
+
+    MappedLines(Path path, Charset charset) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.charset = charset;
+    }
+
+    // Null at end of file.
+    String readLine() throws IOException {
+        if (position >= size) return null;
+
+        int windowSize = WINDOW;
+        while (true) {
+            if (window == null || position < windowStart || position >= windowStart + window.limit()) {
+                map(position, windowSize);
+            }
+            int start = (int) (position - windowStart);
+            int limit = window.limit();
+            for (int i = start; i < limit; i++) {
+                if (window.get(i) == '\n') {
+                    position = windowStart + i + 1;
+                    return decode(start, i);
+                }
+            }
+            if (windowStart + limit >= size) {
+                position = size;
+                return decode(start, limit);
+            }
+            if (windowSize == Integer.MAX_VALUE) {
+                throw new IOException("line longer than 2GB");
+            }
+            // The line runs past the window: remap from its start, bigger
+            // if it already started at the window's start.
+            if (start == 0) windowSize = (int) Math.min(Integer.MAX_VALUE, windowSize * 2L);
+            window = null;
+        }
+    }
+
+    private void map(long from, int windowSize) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(windowSize, size - from));
+        windowStart = from;
+    }
+
+    private String decode(int start, int end) {
+        if (end > start && window.get(end - 1) == '\r') end--;
+        byte[] bytes = new byte[end - start];
+        window.get(start, bytes);
+        return new String(bytes, charset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
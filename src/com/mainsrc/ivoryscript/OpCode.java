@@ -0,0 +1,48 @@
+package com.mainsrc.ivoryscript;
+
+// Instruction set for the bytecode VM. Operands follow the opcode in the
+// chunk: "u8" is one byte, "u16" is two bytes, high byte first.
+final class OpCode {
+    static final byte CONSTANT = 0;        // u16 constant index
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;       // u8 slot
+    static final byte SET_LOCAL = 6;       // u8 slot
+    static final byte GET_GLOBAL = 7;      // u16 global index
+    static final byte DEFINE_GLOBAL = 8;   // u16 global index
+    static final byte SET_GLOBAL = 9;      // u16 global index
+    static final byte GET_UPVALUE = 10;    // u8 upvalue index
+    static final byte SET_UPVALUE = 11;    // u8 upvalue index
+    static final byte GET_PROPERTY = 12;   // u16 constant index of the name token, u16 cache index
+    static final byte SET_PROPERTY = 13;   // u16 constant index of the name token, u16 cache index
+    static final byte GET_SUPER = 14;      // u16 constant index of the method token
+    static final byte GET_INDEX = 15;
+    static final byte SET_INDEX = 16;
+    static final byte EQUAL = 17;
+    static final byte GREATER = 18;
+    static final byte GREATER_EQUAL = 19;
+    static final byte LESS = 20;
+    static final byte LESS_EQUAL = 21;
+    static final byte ADD = 22;
+    static final byte SUBTRACT = 23;
+    static final byte MULTIPLY = 24;
+    static final byte DIVIDE = 25;
+    static final byte NOT = 26;
+    static final byte NEGATE = 27;
+    static final byte PRINT = 28;
+    static final byte JUMP = 29;           // u16 forward offset
+    static final byte JUMP_IF_FALSE = 30;  // u16 forward offset, pops the condition
+    static final byte LOOP = 31;           // u16 backward offset
+    static final byte CALL = 32;           // u8 argument count
+    static final byte CLOSURE = 33;        // u16 function constant, then u8 isLocal + u8 index per upvalue
+    static final byte CLOSE_UPVALUE = 34;
+    static final byte RETURN = 35;
+    static final byte CLASS = 36;          // u16 name constant, u8 method count, u8 has superclass
+    static final byte ARRAY = 37;          // u16 element count
+    static final byte DICTIONARY = 38;     // u16 entry count
+    static final byte INVOKE = 39;         // u16 name token constant, u16 cache index, u8 argument count
+
+    private OpCode() {}
+}
@@ -0,0 +1,94 @@
+package com.mainsrc.ivoryscript;
+
+import java.io.BufferedWriter;
+import java.io.Console;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+// Everything print writes goes through one large buffer instead of a
+// flushing println per line. The buffer is flushed before input() reads,
+// before an error is reported, at exit, and every FLUSH_INTERVAL ms so a
+// long-running script still shows progress. On a terminal, or with
+// -Divory.lineBuffered=true, every line is flushed as it is printed.
+// -Divory.flushInterval=<ms> changes the interval; 0 turns the timer off.
+final class Output {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long FLUSH_INTERVAL = Long.getLong("ivory.flushInterval", 100);
+    private static final boolean LINE_BUFFERED =
+            Boolean.parseBoolean(System.getProperty("ivory.lineBuffered", String.valueOf(isTerminal())));
+
+    private static final Writer out = new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE);
+    private static boolean dirty;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(Output::flush));
+        if (!LINE_BUFFERED && FLUSH_INTERVAL > 0) {
+            Thread flusher = new Thread(Output::flushPeriodically, "ivory-output");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    private Output() {}
+
+    // Since JDK 22 System.console() exists even when output is redirected,
+    // and Console.isTerminal() tells the two apart. Older JDKs only have a
+    // console on a terminal. isTerminal is looked up reflectively so this
+    // still builds on them.
+    private static boolean isTerminal() {
+        Console console = System.console();
+        if (console == null) return false;
+        try {
+            return (Boolean) Console.class.getMethod("isTerminal").invoke(console);
+        } catch (ReflectiveOperationException e) {
+            return true;
+        }
+    }
+
+    static synchronized void println(String line) {
+        try {
+            out.write(line);
+            out.write(System.lineSeparator());
+            if (LINE_BUFFERED) {
+                out.flush();
+            } else {
+                dirty = true;
+            }
+        } catch (IOException e) {
+            throw new Interpreter.RuntimeError(null, "Error writing output: " + e.getMessage());
+        }
+    }
+
+    // For output that doesn't end a line, like the REPL prompt.
+    static synchronized void print(String text) {
+        try {
+            out.write(text);
+            out.flush();
+        } catch (IOException e) {
+            throw new Interpreter.RuntimeError(null, "Error writing output: " + e.getMessage());
+        }
+    }
+
+    static synchronized void flush() {
+        try {
+            out.flush();
+            dirty = false;
+        } catch (IOException e) {
+            // Nothing sensible to do if stdout itself is gone.
+        }
+    }
+
+    private static void flushPeriodically() {
+        while (true) {
+            try {
+                Thread.sleep(FLUSH_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (Output.class) {
+                if (dirty) flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// parallelMap, parallelForEach and parallelReduce. The array's elements are
+// cut into chunks, a few per core, and each chunk runs on a ForkJoinPool
+// worker in an execution context of its own forked from the caller's (see
+// Interpreter.fork), so callbacks see the script's globals but don't share
+// call state. Callbacks run at the same time as each other and in no
+// particular order; one that changes arrays, dictionaries or globals other
+// callbacks use has to expect that.
+final class Parallel {
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private interface ChunkBody {
+        void run(Interpreter worker, int chunk, int from, int to);
+    }
+
+    private Parallel() {}
+
+    static IvoryScriptArray map(Interpreter interpreter, IvoryScriptArray array, IvoryScriptCallable function) {
+        Object[] elements = snapshot(array);
+        Object[] results = new Object[elements.length];
+        forEachChunk(interpreter, elements.length, (worker, chunk, from, to) -> {
+            for (int i = from; i < to; i++) {
+                results[i] = function.call(worker, Collections.singletonList(elements[i]));
+            }
+        });
+        return new IvoryScriptArray(Arrays.asList(results));
+    }
+
+    static void forEach(Interpreter interpreter, IvoryScriptArray array, IvoryScriptCallable function) {
+        Object[] elements = snapshot(array);
+        forEachChunk(interpreter, elements.length, (worker, chunk, from, to) -> {
+            for (int i = from; i < to; i++) {
+                function.call(worker, Collections.singletonList(elements[i]));
+            }
+        });
+    }
+
+    // Each chunk is folded on its own, then the chunk results are folded
+    // into initial in order on the calling thread. That only gives the same
+    // answer as a left-to-right reduce when function is associative.
+    static Object reduce(Interpreter interpreter, IvoryScriptArray array, IvoryScriptCallable function, Object initial) {
+        Object[] elements = snapshot(array);
+        int chunkSize = chunkSize(elements.length);
+        Object[] partials = new Object[chunkCount(elements.length, chunkSize)];
+        forEachChunk(interpreter, elements.length, (worker, chunk, from, to) -> {
+            Object result = elements[from];
+            for (int i = from + 1; i < to; i++) {
+                result = function.call(worker, Arrays.asList(result, elements[i]));
+            }
+            partials[chunk] = result;
+        });
+
+        Object result = initial;
+        for (Object partial : partials) {
+            result = function.call(interpreter, Arrays.asList(result, partial));
+        }
+        return result;
+    }
+
+    // Runs a parallel for (see Parser.parallelForStatement). chunk is called
+    // as chunk(first, last, start, step, reductions...) for each run of
+    // iteration numbers first..last-1 and returns the reductions' final
+    // values for that run. Those are combined in iteration order with the
+    // reductions' values from before the loop, and the results returned for
+    // the loop to store back.
+    static IvoryScriptArray loop(Interpreter interpreter, IvoryScriptCallable chunk, Object start, Object end,
+                                 Object step, boolean inclusive, IvoryScriptArray reductionKinds, IvoryScriptArray before) {
+        if (!Interpreter.isNumber(start) || !Interpreter.isNumber(end) || !Interpreter.isNumber(step)) {
+            throw new Interpreter.RuntimeError(null, "A parallel for's bounds and step must be numbers.");
+        }
+        if (!(Interpreter.toDouble(step) > 0)) {
+            throw new Interpreter.RuntimeError(null, "A parallel for's step must be positive.");
+        }
+        long count = iterations(start, end, step, inclusive);
+        if (count > Integer.MAX_VALUE) {
+            throw new Interpreter.RuntimeError(null, "A parallel for can't run more than " + Integer.MAX_VALUE + " times.");
+        }
+
+        int reductions = reductionKinds.length();
+        String[] kinds = new String[reductions];
+        List<Object> initial = new ArrayList<>(reductions);
+        for (int i = 0; i < reductions; i++) {
+            kinds[i] = reductionKinds.get(i).toString();
+            switch (kinds[i]) {
+                case "sum":
+                    initial.add(0L);
+                    break;
+                case "collect":
+                    if (before.get(i) != null && !(before.get(i) instanceof IvoryScriptArray)) {
+                        throw new Interpreter.RuntimeError(null, "A collect variable must hold an array or nil.");
+                    }
+                    // Every chunk gets a new empty array instead.
+                    initial.add(null);
+                    break;
+                default:
+                    // min and max start every chunk from the value before the
+                    // loop; seeing it more than once doesn't change the answer.
+                    initial.add(before.get(i));
+                    break;
+            }
+        }
+
+        int chunkSize = chunkSize((int) count);
+        Object[] partials = new Object[chunkCount((int) count, chunkSize)];
+        forEachChunk(interpreter, (int) count, (worker, index, from, to) -> {
+            List<Object> arguments = new ArrayList<>(4 + reductions);
+            arguments.add((long) from);
+            arguments.add((long) to);
+            arguments.add(start);
+            arguments.add(step);
+            for (int i = 0; i < reductions; i++) {
+                arguments.add(kinds[i].equals("collect") ? new IvoryScriptArray(new ArrayList<>()) : initial.get(i));
+            }
+            partials[index] = chunk.call(worker, arguments);
+        });
+
+        List<Object> results = new ArrayList<>(reductions);
+        for (int i = 0; i < reductions; i++) {
+            Object result = before.get(i);
+            if (kinds[i].equals("collect") && result == null) result = new IvoryScriptArray(new ArrayList<>());
+            for (Object partial : partials) {
+                result = combine(kinds[i], result, ((IvoryScriptArray) partial).get(i));
+            }
+            results.add(result);
+        }
+        return new IvoryScriptArray(results);
+    }
+
+    private static long iterations(Object start, Object end, Object step, boolean inclusive) {
+        if (start instanceof Long && end instanceof Long && step instanceof Long) {
+            long span = (long) end - (long) start;
+            long by = (long) step;
+            if (span < 0 || (span == 0 && !inclusive)) return 0;
+            return inclusive ? span / by + 1 : (span - 1) / by + 1;
+        }
+        double span = (Interpreter.toDouble(end) - Interpreter.toDouble(start)) / Interpreter.toDouble(step);
+        if (span < 0 || (span == 0 && !inclusive)) return 0;
+        return inclusive ? (long) Math.floor(span) + 1 : (long) Math.ceil(span);
+    }
+
+    private static Object combine(String kind, Object result, Object partial) {
+        switch (kind) {
+            case "sum":
+                return Interpreter.binaryOp(TokenType.PLUS, null, result, partial);
+            case "collect":
+                if (!(partial instanceof IvoryScriptArray)) {
+                    throw new Interpreter.RuntimeError(null, "A collect variable must hold an array or nil.");
+                }
+                ((IvoryScriptArray) result).addAll((IvoryScriptArray) partial);
+                return result;
+            default:
+                // nil means nothing was seen yet.
+                if (partial == null) return result;
+                if (result == null) return partial;
+                TokenType better = kind.equals("min") ? TokenType.LESS : TokenType.GREATER;
+                return Interpreter.isTruthy(Interpreter.binaryOp(better, null, partial, result)) ? partial : result;
+        }
+    }
+
+    // Elements are read up front so callbacks changing the array can't
+    // change what is visited.
+    private static Object[] snapshot(IvoryScriptArray array) {
+        Object[] elements = new Object[array.length()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = array.get(i);
+        }
+        return elements;
+    }
+
+    private static int chunkSize(int length) {
+        int chunks = ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_WORKER;
+        return Math.max(1, (length + chunks - 1) / chunks);
+    }
+
+    private static int chunkCount(int length, int chunkSize) {
+        return (length + chunkSize - 1) / chunkSize;
+    }
+
+    private static void forEachChunk(Interpreter interpreter, int length, ChunkBody body) {
+        if (length == 0) return;
+        int chunkSize = chunkSize(length);
+        ForkJoinPool.commonPool().invoke(new Chunks(interpreter, body, chunkSize, length, 0, chunkCount(length, chunkSize)));
+    }
+
+    // Splits its range of chunks in half until it holds a single one.
+    private static final class Chunks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Interpreter interpreter;
+        private final ChunkBody body;
+        private final int chunkSize;
+        private final int length;
+        private final int first;
+        private final int last;
+
+        Chunks(Interpreter interpreter, ChunkBody body, int chunkSize, int length, int first, int last) {
+            this.interpreter = interpreter;
+            this.body = body;
+            this.chunkSize = chunkSize;
+            this.length = length;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first > 1) {
+                int middle = (first + last) >>> 1;
+                invokeAll(new Chunks(interpreter, body, chunkSize, length, first, middle),
+                        new Chunks(interpreter, body, chunkSize, length, middle, last));
+                return;
+            }
+            int from = first * chunkSize;
+            body.run(interpreter.fork(), first, from, Math.min(length, from + chunkSize));
+        }
+    }
+}
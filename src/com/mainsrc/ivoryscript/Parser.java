@@ -13,10 +13,16 @@ class Parser {
 
     private static class ParseError extends RuntimeException {}
     private final List<Token> tokens;
+    private final ErrorReporter errors;
     private int current = 0;
+    // Loops and chooses 'disrupt' could leave from here, counted from the
+    // innermost function or parallel for body.
+    private int disruptTargets = 0;
+    private boolean inParallelFor = false;
 
-    Parser(List<Token> tokens) {
+    Parser(List<Token> tokens, ErrorReporter errors) {
         this.tokens = tokens;
+        this.errors = errors;
     }
 
     private Expr equality() {
@@ -60,6 +66,11 @@ class Parser {
         return tokens.get(current);
     }
 
+    private boolean checkNext(TokenType type) {
+        if (isAtEnd()) return false;
+        return tokens.get(current + 1).type == type;
+    }
+
     private Token previous() {
         return tokens.get(current - 1);
     }
@@ -193,8 +204,8 @@ class Parser {
                 values.add(value);
             } while (match(COMMA));
         }
-        consume(RIGHT_BRACE, "Expect '}' after dictionary entries.");
-        return new Expr.Dictionary(keys, values);
+        Token brace = consume(RIGHT_BRACE, "Expect '}' after dictionary entries.");
+        return new Expr.Dictionary(keys, values, brace);
     }
 
     private Expr finishCall(Expr callee) {
@@ -219,18 +230,30 @@ class Parser {
         throw error(peek(), message);
     }
     private ParseError error(Token token, String message) {
-        IvoryScript.error(token.line, message);
+        errors.error(token.line, message);
         return new ParseError();
     }
     
     private Stmt statement() {
         if (match(PRINT)) return printStatement();
         if (match(LEFT_BRACE)) return new Stmt.Block(block());
-        if (match(CHOOSE)) return chooseStatement();
+        if (match(CHOOSE)) return disruptable(this::chooseStatement);
         if (match(IF)) return ifStatement();
-        if (match(WHILE)) return whileStatement();
-        if (match(FOR)) return forStatement();
+        if (match(WHILE)) return disruptable(this::whileStatement);
+        if (match(FOR)) return disruptable(this::forStatement);
+        // 'parallel' is only special right before 'for', so it still works
+        // as a name everywhere else.
+        if (check(IDENTIFIER) && peek().lexeme.equals("parallel") && checkNext(FOR)) {
+            Token keyword = advance();
+            advance();
+            return parallelForStatement(keyword);
+        }
         if (match(DISRUPT)) {
+            if (disruptTargets == 0) {
+                error(previous(), inParallelFor
+                        ? "Can't use 'disrupt' to leave a parallel for."
+                        : "Can't use 'disrupt' outside of a loop or choose.");
+            }
             consume(SEMICOLON, "Expected ';' after 'disrupt'.");
             return new Stmt.Break();
         }
@@ -238,6 +261,15 @@ class Parser {
         return expressionStatement();
     }
 
+    private Stmt disruptable(java.util.function.Supplier<Stmt> statement) {
+        disruptTargets++;
+        try {
+            return statement.get();
+        } finally {
+            disruptTargets--;
+        }
+    }
+
     private Stmt printStatement() {
         Expr value = expression();
         consume(SEMICOLON, "Expected ';' after value!");
@@ -350,6 +382,158 @@ class Parser {
         return body;
     }
 
+    // parallel for (var i = start; i < end; i = i + step; sum total, ...) body
+    //
+    // desugars to
+    //
+    // {
+    //     fun <parallel for>(<first>, <last>, <start>, <step>, total, ...) {
+    //         for (var <n> = <first>; <n> < <last>; <n> = <n> + 1) {
+    //             var i = <start> + <n> * <step>;
+    //             body
+    //         }
+    //         return [total, ...];
+    //     }
+    //     var <results> = <parallel loop>(<parallel for>, start, end, step,
+    //             inclusive, ["sum", ...], [total, ...]);
+    //     total = <results>[0];
+    //     ...
+    // }
+    //
+    // <parallel loop> runs the function once per chunk of iterations on the
+    // fork-join pool (see Parallel.loop). The reduction variables are its
+    // parameters, so every chunk gets private copies, and what the chunks
+    // return is combined and stored back. The names in angle brackets can't
+    // be written in a script, so they never clash with the script's own.
+    private Stmt parallelForStatement(Token keyword) {
+        String shape = "A parallel for must count up: (var i = start; i < end; i = i + step).";
+        consume(LEFT_PAREN, "Expected '(' after 'for'.");
+        consume(VAR, shape);
+        Token variable = consume(IDENTIFIER, "Expected variable name.");
+        consume(EQUAL, shape);
+        Expr start = expression();
+        consume(SEMICOLON, "Expected ';' after loop initializer.");
+
+        Expr condition = expression();
+        boolean inclusive = false;
+        Expr end = null;
+        if (condition instanceof Expr.Binary && isVariable(((Expr.Binary) condition).left, variable)) {
+            Expr.Binary binary = (Expr.Binary) condition;
+            if (binary.operator.type == LESS || binary.operator.type == LESS_EQUAL) {
+                inclusive = binary.operator.type == LESS_EQUAL;
+                end = binary.right;
+            }
+        }
+        if (end == null) {
+            error(keyword, shape);
+            end = condition;
+        }
+        consume(SEMICOLON, "Expected ';' after loop condition.");
+
+        Expr increment = expression();
+        Expr step = null;
+        if (increment instanceof Expr.Assign && ((Expr.Assign) increment).name.lexeme.equals(variable.lexeme)) {
+            Expr value = ((Expr.Assign) increment).value;
+            if (value instanceof Expr.Binary && ((Expr.Binary) value).operator.type == PLUS
+                    && isVariable(((Expr.Binary) value).left, variable)) {
+                step = ((Expr.Binary) value).right;
+            }
+        }
+        if (step == null) {
+            error(keyword, shape);
+            step = increment;
+        }
+
+        List<Token> reductions = new ArrayList<>();
+        List<Expr> kinds = new ArrayList<>();
+        if (match(SEMICOLON)) {
+            do {
+                Token kind = consume(IDENTIFIER, "Expected 'sum', 'min', 'max' or 'collect'.");
+                if (!Arrays.asList("sum", "min", "max", "collect").contains(kind.lexeme)) {
+                    throw error(kind, "Expected 'sum', 'min', 'max' or 'collect'.");
+                }
+                Token name = consume(IDENTIFIER, "Expected variable name after '" + kind.lexeme + "'.");
+                if (name.lexeme.equals(variable.lexeme)) {
+                    error(name, "The loop variable can't be a reduction variable.");
+                }
+                for (Token other : reductions) {
+                    if (other.lexeme.equals(name.lexeme)) error(name, "'" + name.lexeme + "' is already reduced.");
+                }
+                reductions.add(name);
+                kinds.add(new Expr.Literal(kind.lexeme));
+            } while (match(COMMA));
+        }
+        consume(RIGHT_PAREN, "Expected ')' after for clauses.");
+
+        boolean enclosingParallel = inParallelFor;
+        int enclosingTargets = disruptTargets;
+        inParallelFor = true;
+        disruptTargets = 0;
+        Stmt body;
+        try {
+            body = statement();
+        } finally {
+            inParallelFor = enclosingParallel;
+            disruptTargets = enclosingTargets;
+        }
+
+        Token function = synthetic(keyword, "<parallel for>");
+        Token first = synthetic(keyword, "<first>");
+        Token last = synthetic(keyword, "<last>");
+        Token startParam = synthetic(keyword, "<start>");
+        Token stepParam = synthetic(keyword, "<step>");
+        Token counter = synthetic(keyword, "<n>");
+        Token results = synthetic(keyword, "<results>");
+
+        // Separate nodes for the reads inside and outside the function, since
+        // the Resolver records on each node where it reads from.
+        List<Expr> privateValues = new ArrayList<>();
+        List<Expr> valuesBefore = new ArrayList<>();
+        for (Token name : reductions) {
+            privateValues.add(new Expr.Variable(name));
+            valuesBefore.add(new Expr.Variable(name));
+        }
+
+        Stmt iteration = new Stmt.Block(Arrays.asList(
+            new Stmt.Var(variable, new Expr.Binary(new Expr.Variable(startParam), synthetic(keyword, PLUS, "+"),
+                new Expr.Binary(new Expr.Variable(counter), synthetic(keyword, STAR, "*"), new Expr.Variable(stepParam)))),
+            body));
+        Stmt loop = new Stmt.Block(Arrays.asList(
+            new Stmt.Var(counter, new Expr.Variable(first)),
+            new Stmt.While(
+                new Expr.Binary(new Expr.Variable(counter), synthetic(keyword, LESS, "<"), new Expr.Variable(last)),
+                new Stmt.Block(Arrays.asList(iteration, new Stmt.Expression(new Expr.Assign(counter,
+                    new Expr.Binary(new Expr.Variable(counter), synthetic(keyword, PLUS, "+"), new Expr.Literal(1L)))))))));
+
+        List<Token> parameters = new ArrayList<>(Arrays.asList(first, last, startParam, stepParam));
+        parameters.addAll(reductions);
+        Stmt chunk = new Stmt.Function(function, parameters,
+            Arrays.asList(loop, new Stmt.Return(keyword, new Expr.Array(privateValues))));
+
+        List<Stmt> statements = new ArrayList<>();
+        statements.add(chunk);
+        statements.add(new Stmt.Var(results, new Expr.Call(new Expr.Variable(synthetic(keyword, "<parallel loop>")), keyword,
+            Arrays.asList(new Expr.Variable(function), start, end, step, new Expr.Literal(inclusive),
+                new Expr.Array(kinds), new Expr.Array(valuesBefore)))));
+        for (int i = 0; i < reductions.size(); i++) {
+            statements.add(new Stmt.Expression(new Expr.Assign(reductions.get(i),
+                new Expr.Index(new Expr.Variable(results), new Expr.Literal((long) i), keyword))));
+        }
+        return new Stmt.Block(statements);
+    }
+
+    private static boolean isVariable(Expr expr, Token name) {
+        return expr instanceof Expr.Variable && ((Expr.Variable) expr).name.lexeme.equals(name.lexeme);
+    }
+
+    private static Token synthetic(Token at, String name) {
+        return synthetic(at, IDENTIFIER, name);
+    }
+
+    private static Token synthetic(Token at, TokenType type, String lexeme) {
+        return new Token(type, lexeme, null, at.line);
+    }
+
     private Expr expression() {
         return assignment();
     }
@@ -475,12 +659,25 @@ class Parser {
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
     
         consume(TokenType.LEFT_BRACE, "Expect '{' before " + kind + " body.");
-        List<Stmt> body = block();
+        boolean enclosingParallel = inParallelFor;
+        int enclosingTargets = disruptTargets;
+        inParallelFor = false;
+        disruptTargets = 0;
+        List<Stmt> body;
+        try {
+            body = block();
+        } finally {
+            inParallelFor = enclosingParallel;
+            disruptTargets = enclosingTargets;
+        }
         return new Stmt.Function(name, parameters, body);
     }
 
     private Stmt returnStatement() {
         Token keyword = previous();
+        if (inParallelFor) {
+            error(keyword, "Can't return from inside a parallel for.");
+        }
         Expr value = null;
 
         if (!check(TokenType.SEMICOLON)) {
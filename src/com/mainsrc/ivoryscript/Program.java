@@ -0,0 +1,41 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.Collections;
+import java.util.List;
+
+// A script that has been scanned, parsed and resolved. Nothing in it changes
+// after compile() returns apart from the inline caches and JIT results kept
+// on its nodes, which are safe to share, so one Program can be run any
+// number of times, on any number of threads at once. Each run gets its own
+// Interpreter, and with it its own globals and call state.
+public final class Program {
+    final List<Stmt> statements;
+    private final boolean hadError;
+
+    private Program(List<Stmt> statements, boolean hadError) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.hadError = hadError;
+    }
+
+    // Compile errors are reported to stderr as they're found.
+    public static Program compile(String source) {
+        ErrorReporter errors = new ErrorReporter();
+        List<Token> tokens = new IvoryScanner(source, errors).scanTokens();
+        List<Stmt> statements = new Parser(tokens, errors).parse();
+        if (!errors.hadError()) {
+            new Resolver(errors).resolve(statements);
+        }
+        return new Program(statements, errors.hadError());
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    // Runs the program in a fresh Interpreter. Returns false if it didn't
+    // compile or stopped with a runtime error.
+    public boolean run() {
+        if (hadError) return false;
+        return new Interpreter().interpret(statements);
+    }
+}
@@ -0,0 +1,363 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Works out, for each local variable use, how many scopes separate it from its
+// declaration and which slot of that scope's frame holds it. The scopes here
+// must match the environments the interpreter creates at runtime; unresolved
+// names are globals.
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final List<Scope> scopes = new ArrayList<>();
+    private final ErrorReporter errors;
+    private FunctionType currentFunction = FunctionType.NONE;
+
+    private enum FunctionType {
+        NONE,
+        FUNCTION,
+        METHOD
+    }
+
+    private static class Scope {
+        final Map<String, Integer> slots = new HashMap<>();
+        int size = 0;
+
+        int declare(String name) {
+            Integer slot = slots.get(name);
+            if (slot != null) return slot;
+            return declareFresh(name);
+        }
+
+        int declareFresh(String name) {
+            slots.put(name, size);
+            return size++;
+        }
+    }
+
+    Resolver(ErrorReporter errors) {
+        this.errors = errors;
+    }
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void beginScope() {
+        scopes.add(new Scope());
+    }
+
+    private int endScope() {
+        return scopes.remove(scopes.size() - 1).size;
+    }
+
+    private int declare(Token name) {
+        if (scopes.isEmpty()) return -1;
+        return scopes.get(scopes.size() - 1).declare(name.lexeme);
+    }
+
+    // Index into scopes of the innermost scope declaring the name, or -1.
+    private int scopeOf(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).slots.containsKey(name.lexeme)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Every function declared directly in a block gets its slot before any
+    // of the block is resolved, so functions can call siblings declared
+    // after them, as mutually recursive local functions do.
+    private void declareFunctions(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function) {
+                declare(((Stmt.Function) statement).name);
+            }
+        }
+    }
+
+    private int depthOf(int scope) {
+        return scope < 0 ? -1 : scopes.size() - 1 - scope;
+    }
+
+    private int slotOf(int scope, Token name) {
+        return scope < 0 ? -1 : scopes.get(scope).slots.get(name.lexeme);
+    }
+
+    private void resolveFunction(Stmt.Function function, FunctionType type) {
+        FunctionType enclosingFunction = currentFunction;
+        currentFunction = type;
+
+        beginScope();
+        // Parameters always get the first slots, in order, even if a name
+        // repeats; the later parameter shadows the earlier one.
+        for (Token param : function.params) {
+            scopes.get(scopes.size() - 1).declareFresh(param.lexeme);
+        }
+        declareFunctions(function.body);
+        resolve(function.body);
+        function.slotCount = endScope();
+
+        currentFunction = enclosingFunction;
+    }
+
+    private int resolveCaseBody(List<Stmt> body) {
+        beginScope();
+        declareFunctions(body);
+        resolve(body);
+        return endScope();
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        declareFunctions(stmt.statements);
+        resolve(stmt.statements);
+        stmt.slotCount = endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // The initializer runs before the name is defined, so it still sees
+        // any outer variable of the same name.
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        stmt.slot = declare(stmt.name);
+        resolveFunction(stmt, FunctionType.FUNCTION);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        stmt.slot = declare(stmt.name);
+
+        if (stmt.superclass != null) {
+            resolve(stmt.superclass);
+        }
+
+        beginScope();
+        if (stmt.superclass != null) {
+            scopes.get(scopes.size() - 1).declare("super");
+        }
+
+        beginScope();
+        scopes.get(scopes.size() - 1).declare("this");
+
+        for (Stmt.Function method : stmt.methods) {
+            resolveFunction(method, FunctionType.METHOD);
+        }
+
+        endScope();
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        if (stmt.condition != null) resolve(stmt.condition);
+        if (stmt.increment != null) resolve(stmt.increment);
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        resolve(stmt.condition);
+        for (Stmt.Case caseStmt : stmt.cases) {
+            resolve(caseStmt);
+        }
+        if (stmt.defaultCase != null) {
+            resolve(stmt.defaultCase);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCaseStmt(Stmt.Case stmt) {
+        resolve(stmt.value);
+        stmt.slotCount = resolveCaseBody(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitDefaultStmt(Stmt.Default stmt) {
+        stmt.slotCount = resolveCaseBody(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            errors.error(stmt.keyword.line, "Can't return from top-level code.");
+        }
+
+        if (stmt.value != null) {
+            resolve(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        int scope = scopeOf(expr.name);
+        expr.depth = depthOf(scope);
+        expr.slot = slotOf(scope, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        int scope = scopeOf(expr.name);
+        expr.depth = depthOf(scope);
+        expr.slot = slotOf(scope, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        int scope = scopeOf(expr.keyword);
+        expr.depth = depthOf(scope);
+        expr.slot = slotOf(scope, expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        int scope = scopeOf(expr.keyword);
+        expr.depth = depthOf(scope);
+        expr.slot = slotOf(scope, expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        for (Expr element : expr.elements) {
+            resolve(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitDictionaryExpr(Expr.Dictionary expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            resolve(expr.keys.get(i));
+            resolve(expr.values.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexAssignExpr(Expr.IndexAssign expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+}
@@ -0,0 +1,62 @@
+package com.mainsrc.ivoryscript;
+
+// A long string built by concatenation. Ropes cut from the same buffer share
+// it, and appending to the newest one extends the buffer in place, so
+// s = s + x in a loop copies each character once rather than on every pass.
+// The text becomes a String the first time something reads it and that
+// String is kept. Short results stay plain Strings.
+final class Rope implements CharSequence {
+    private static final int MIN_LENGTH = 64;
+
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat;
+
+    private Rope(StringBuilder buffer) {
+        this.buffer = buffer;
+        this.length = buffer.length();
+    }
+
+    static Object concat(Object left, String right) {
+        if (left instanceof Rope) {
+            Rope rope = (Rope) left;
+            synchronized (rope.buffer) {
+                if (rope.buffer.length() == rope.length) {
+                    return new Rope(rope.buffer.append(right));
+                }
+            }
+        }
+
+        String text = Interpreter.concatText(left);
+        int total = text.length() + right.length();
+        if (total < MIN_LENGTH) return text + right;
+        return new Rope(new StringBuilder(total * 2).append(text).append(right));
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text == null) {
+            synchronized (buffer) {
+                text = buffer.substring(0, length);
+            }
+            flat = text;
+        }
+        return text;
+    }
+}
@@ -0,0 +1,40 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The field layout shared by instances that had the same fields added in
+// the same order. Each class has an empty root shape; adding a field moves
+// an instance along a transition to a child shape, which is created once and
+// reused by every later instance that takes the same path. Every shape
+// carries the token of the run its class was defined in (see
+// Interpreter.run).
+final class Shape {
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new ConcurrentHashMap<>();
+    final int size;
+    final Interpreter.Run run;
+
+    Shape(Interpreter.Run run) {
+        this.slots = new HashMap<>();
+        this.size = 0;
+        this.run = run;
+    }
+
+    private Shape(Shape parent, String name) {
+        this.run = parent.run;
+        this.slots = new HashMap<>(parent.slots);
+        this.slots.put(name, parent.size);
+        this.size = parent.size + 1;
+    }
+
+    int indexOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    Shape withField(String name) {
+        return transitions.computeIfAbsent(name, field -> new Shape(this, field));
+    }
+}
@@ -50,6 +50,7 @@ abstract class Stmt {
   static class Var extends Stmt {
     final Token name;
     final Expr initializer;
+    int slot = -1;
 
     Var(Token name, Expr initializer) {
       this.name = name;
@@ -64,6 +65,7 @@ abstract class Stmt {
 
   static class Block extends Stmt {
     final List<Stmt> statements;
+    int slotCount;
 
     Block(List<Stmt> statements) {
       this.statements = statements;
@@ -155,6 +157,7 @@ abstract class Stmt {
   static class Case extends Stmt {
     final Expr value;
     final List<Stmt> body;
+    int slotCount;
 
     Case(Expr value, List<Stmt> body) {
       this.value = value;
@@ -169,6 +172,7 @@ abstract class Stmt {
 
   static class Default extends Stmt {
     final List<Stmt> body;
+    int slotCount;
 
     Default(List<Stmt> body) {
       this.body = body;
@@ -184,6 +188,11 @@ abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    int slot = -1;
+    int slotCount;
+    // Guarded by the declaration itself; see JitCompiler.compile.
+    boolean jitAttempted;
+    CompiledFunction compiled;
 
     Function(Token name, List<Token> params, List<Stmt> body) {
       this.name = name;
@@ -218,6 +227,7 @@ abstract class Stmt {
     final Token name; 
     final Expr.Variable superclass;
     final List<Stmt.Function> methods;
+    int slot = -1;
 
     Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
         this.name = name;
@@ -0,0 +1,65 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.List;
+import java.util.Map;
+
+// The methods strings have. There is one shared object per method and the
+// string it is called on is passed in, so s.substring(i, j) allocates only
+// its result. Reading a method without calling it binds it to the string.
+// The receiver may be a Rope, which only needs flattening for methods that
+// look at the characters.
+abstract class StringMethod {
+    private static final Map<String, StringMethod> METHODS = Map.of(
+        "length", new StringMethod(0) {
+            @Override
+            Object call(CharSequence value, List<Object> arguments) {
+                return (long) value.length();
+            }
+        },
+        "substring", new StringMethod(2) {
+            @Override
+            Object call(CharSequence value, List<Object> arguments) {
+                if (!Interpreter.isNumber(arguments.get(0)) || !Interpreter.isNumber(arguments.get(1))) {
+                    throw new Interpreter.RuntimeError(null, "substring() requires two number arguments.");
+                }
+                int start = Interpreter.toInt(arguments.get(0));
+                int end = Interpreter.toInt(arguments.get(1));
+                if (start < 0 || end > value.length() || start > end) {
+                    throw new Interpreter.RuntimeError(null, "Invalid substring indices.");
+                }
+                return value.toString().substring(start, end);
+            }
+        },
+        "toUpper", new StringMethod(0) {
+            @Override
+            Object call(CharSequence value, List<Object> arguments) {
+                return value.toString().toUpperCase();
+            }
+        },
+        "toLower", new StringMethod(0) {
+            @Override
+            Object call(CharSequence value, List<Object> arguments) {
+                return value.toString().toLowerCase();
+            }
+        });
+
+    final int arity;
+
+    private StringMethod(int arity) {
+        this.arity = arity;
+    }
+
+    abstract Object call(CharSequence value, List<Object> arguments);
+
+    static StringMethod find(Token name) {
+        StringMethod method = METHODS.get(name.lexeme);
+        if (method == null) {
+            throw new Interpreter.RuntimeError(name, "String has no property '" + name.lexeme + "'.");
+        }
+        return method;
+    }
+
+    IvoryScriptCallable bind(CharSequence value) {
+        return new IvoryScriptNativeFunction(arity, arguments -> call(value, arguments));
+    }
+}
@@ -0,0 +1,144 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+// What spawn() returns: a call running on a thread of its own, in a context
+// forked from the caller's (see Interpreter.fork). Threads come from a
+// cached pool, so a script that spawns a task per blocking read or file
+// reuses a handful of threads instead of starting one each time. They are
+// daemon threads, so tasks nobody awaits don't keep the process alive.
+//
+// A task is cancelled by interrupting its thread. Interpreted code checks
+// for that on every loop iteration and call (see checkCancelled) and stops
+// with a runtime error. Until it does, the task still counts as running:
+// done is false, and await() and task groups keep waiting for it.
+final class Task {
+    private static final ExecutorService THREADS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ivory-task");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FutureTask<Object> future;
+    // Counted down once the thread has stopped running the call, which after
+    // a cancel can be well after the future reports itself done.
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private final IvoryScriptCallable done = new IvoryScriptNativeFunction(0, args -> isDone());
+
+    private final IvoryScriptCallable cancel = new IvoryScriptNativeFunction(0, args -> {
+        cancel();
+        return null;
+    });
+
+    private Task(Interpreter interpreter, IvoryScriptCallable function, List<Object> arguments, TaskGroup group) {
+        Interpreter worker = interpreter.fork();
+        this.future = new FutureTask<>(() -> {
+            try {
+                return function.call(worker, arguments);
+            } catch (RuntimeException | Error e) {
+                if (group != null) group.failed(this);
+                throw e;
+            }
+        });
+    }
+
+    // spawn(fn, args...): the arguments are checked here, on the spawning
+    // thread, so a bad call fails where it was made.
+    static Task spawn(Interpreter interpreter, List<Object> spawnArguments, TaskGroup group) {
+        if (spawnArguments.isEmpty() || !(spawnArguments.get(0) instanceof IvoryScriptCallable)) {
+            throw new Interpreter.RuntimeError(null, "spawn() requires a function.");
+        }
+        IvoryScriptCallable function = (IvoryScriptCallable) spawnArguments.get(0);
+        List<Object> arguments = new ArrayList<>(spawnArguments.subList(1, spawnArguments.size()));
+        if (function.arity() != IvoryScriptCallable.VARIADIC && function.arity() != arguments.size()) {
+            throw new Interpreter.RuntimeError(null,
+                    "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        }
+        Task task = new Task(interpreter, function, arguments, group);
+        if (group != null) group.add(task);
+        THREADS.execute(task::run);
+        return task;
+    }
+
+    // A future cancelled before it starts returns at once without running.
+    private void run() {
+        try {
+            future.run();
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    // Waits for the task and returns what the call returned, or throws the
+    // error it stopped with.
+    Object await() {
+        try {
+            finished.await();
+            return future.get();
+        } catch (CancellationException e) {
+            throw new Interpreter.RuntimeError(null, "Task was cancelled.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Interpreter.RuntimeError(null, "Task was cancelled.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Interpreter.RuntimeError) throw (Interpreter.RuntimeError) cause;
+            if (cause instanceof StackOverflowError) throw new Interpreter.RuntimeError(null, "Stack overflow.");
+            throw new Interpreter.RuntimeError(null, "Task failed: " + cause);
+        }
+    }
+
+    boolean isDone() {
+        return finished.getCount() == 0;
+    }
+
+    // Waits for the task to stop running without giving up when the waiting
+    // thread is interrupted. False if it was; the interrupt is kept.
+    boolean join() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return !interrupted;
+    }
+
+    void cancel() {
+        future.cancel(true);
+    }
+
+    static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new Interpreter.RuntimeError(null, "Task was cancelled.");
+        }
+    }
+
+    Object getProperty(Token name) {
+        switch (name.lexeme) {
+            case "done":
+                return done;
+            case "cancel":
+                return cancel;
+            default:
+                throw new Interpreter.RuntimeError(name, "Task has no property '" + name.lexeme + "'.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
@@ -0,0 +1,109 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// What taskGroup(fn) passes to fn. Tasks started with group.spawn() belong
+// to the group: taskGroup() doesn't return until all of them have finished,
+// and the first one to fail cancels the rest and has its error rethrown
+// from taskGroup(). An error in fn itself cancels them all too.
+final class TaskGroup {
+    private final List<Task> tasks = new ArrayList<>();
+    private Task failure;
+    private boolean closed;
+
+    private final IvoryScriptCallable spawn = new IvoryScriptCallable() {
+        @Override
+        public int arity() {
+            return VARIADIC;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return Task.spawn(interpreter, arguments, TaskGroup.this);
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    };
+
+    private TaskGroup() {}
+
+    static Object run(Interpreter interpreter, IvoryScriptCallable function) {
+        TaskGroup group = new TaskGroup();
+        Object result;
+        try {
+            result = function.call(interpreter, Collections.singletonList(group));
+        } catch (RuntimeException | Error e) {
+            group.cancelAll(null);
+            group.join();
+            throw e;
+        }
+        group.join();
+        Task failed;
+        synchronized (group) {
+            failed = group.failure;
+        }
+        if (failed != null) failed.await();
+        return result;
+    }
+
+    synchronized void add(Task task) {
+        if (closed) {
+            task.cancel();
+            throw new Interpreter.RuntimeError(null, "Can't spawn into a task group that has finished.");
+        }
+        tasks.add(task);
+    }
+
+    void failed(Task task) {
+        synchronized (this) {
+            if (failure != null) return;
+            failure = task;
+        }
+        cancelAll(task);
+    }
+
+    private void cancelAll(Task except) {
+        List<Task> running;
+        synchronized (this) {
+            running = new ArrayList<>(tasks);
+        }
+        for (Task task : running) {
+            if (task != except) task.cancel();
+        }
+    }
+
+    // Waits until every task, including ones spawned while waiting, has
+    // stopped running, then stops the group taking more. A cancelled task
+    // is still waited for until its thread notices. If the waiting thread is
+    // itself cancelled, the tasks are cancelled too, but still waited for.
+    private void join() {
+        for (int i = 0; ; i++) {
+            Task task;
+            synchronized (this) {
+                if (i == tasks.size()) {
+                    closed = true;
+                    return;
+                }
+                task = tasks.get(i);
+            }
+            // A failure is reported through 'failure'; a task that was
+            // cancelled has nothing to report.
+            if (!task.join()) cancelAll(null);
+        }
+    }
+
+    Object getProperty(Token name) {
+        if (name.lexeme.equals("spawn")) return spawn;
+        throw new Interpreter.RuntimeError(name, "Task group has no property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<task group>";
+    }
+}
@@ -17,14 +17,15 @@ public class TestParser {
             }
         """;
 
-        IvoryScanner scanner = new IvoryScanner(source);
+        ErrorReporter errors = new ErrorReporter();
+        IvoryScanner scanner = new IvoryScanner(source, errors);
         List<Token> tokens = scanner.scanTokens();
 
         for (Token token : tokens) {
             System.out.println(token);
         }
 
-        Parser parser = new Parser(tokens);
+        Parser parser = new Parser(tokens, errors);
         List<Stmt> statements = parser.parse();
 
         for (Stmt stmt : statements) {
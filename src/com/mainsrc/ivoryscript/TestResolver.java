@@ -0,0 +1,37 @@
+package com.mainsrc.ivoryscript;
+
+// Local functions that call a sibling declared after them. Both engines
+// should print "true" and "false".
+public class TestResolver {
+    public static void main(String[] args) {
+        String source = """
+            fun outer(n) {
+                fun isEven(n) {
+                    if (n == 0) return true;
+                    return isOdd(n - 1);
+                }
+                fun isOdd(n) {
+                    if (n == 0) return false;
+                    return isEven(n - 1);
+                }
+                return isEven(n);
+            }
+            print outer(10);
+            print outer(7);
+        """;
+
+        Program program = Program.compile(source);
+        if (program.hadError()) {
+            System.exit(65);
+        }
+
+        System.out.println("tree-walker:");
+        program.run();
+        Output.flush();
+
+        System.out.println("vm:");
+        Interpreter interpreter = new Interpreter();
+        new VM(interpreter).interpret(program.statements);
+        Output.flush();
+    }
+}
@@ -0,0 +1,653 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mainsrc.ivoryscript.Interpreter.RuntimeError;
+
+// Stack-based virtual machine for the bytecode produced by BytecodeCompiler.
+// Values, natives, classes and instances are the same objects the
+// tree-walker uses; the arithmetic fast paths here fall back to the shared
+// helpers in Interpreter for everything but plain numbers.
+class VM {
+    private static final int FRAMES_MAX = 100_000;
+
+    private static class CallFrame {
+        VmClosure closure;
+        int ip;
+        int base;
+        boolean constructing;
+    }
+
+    // Native functions receive this as their interpreter argument.
+    private final Interpreter interpreter;
+
+    private final VmGlobals globals;
+
+    private Object[] stack = new Object[1024];
+    // The stack as closures running on other threads see it. It is swapped
+    // together with stack, under this VM's lock, so VmUpvalue never writes
+    // into a copy that has been left behind.
+    volatile Object[] sharedStack = stack;
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private VmUpvalue openUpvalues = null;
+
+    VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = new VmGlobals();
+        interpreter.vm = this;
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new CallFrame();
+        }
+    }
+
+    // A VM for another thread that shares this one's global table.
+    private VM(VM parent, Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = parent.globals;
+        interpreter.vm = this;
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new CallFrame();
+        }
+    }
+
+    void fork(Interpreter worker) {
+        new VM(this, worker);
+    }
+
+    int globalSlot(String name) {
+        return globals.slot(name, interpreter.globals);
+    }
+
+    // False if the statements couldn't be compiled to bytecode.
+    boolean interpret(List<Stmt> statements) {
+        VmFunction script = new BytecodeCompiler(this, new ErrorReporter()).compile(statements);
+        if (script == null) return false;
+
+        VmClosure closure = new VmClosure(script, new VmUpvalue[0], null);
+        try {
+            push(closure);
+            pushFrame(closure, sp - 1, false);
+            run(0);
+        } catch (RuntimeError error) {
+            Output.flush();
+            System.err.println("[line " + error.token.line + "] RuntimeError: " + error.getMessage());
+            resetStack();
+        }
+        return true;
+    }
+
+    // Calls a closure from Java code, such as a native or a class
+    // constructor, and runs it to completion.
+    Object call(VmClosure closure, List<Object> arguments) {
+        int baseFrame = frameCount;
+        ensureStack(sp + arguments.size() + 1);
+        push(closure);
+        for (Object argument : arguments) {
+            push(argument);
+        }
+        callValue(closure, arguments.size());
+        return run(baseFrame);
+    }
+
+    private void resetStack() {
+        closeUpvalues(0);
+        Arrays.fill(stack, null);
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    // Every frame reserves room for the deepest stack its function can
+    // reach, so pushes inside run() never need a bounds check. Popped slots
+    // are left as they are and cleared when the frame returns.
+    private void ensureStack(int size) {
+        if (size > stack.length) {
+            synchronized (this) {
+                stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+                sharedStack = stack;
+            }
+        }
+    }
+
+    private void push(Object value) {
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        return stack[--sp];
+    }
+
+    private Object peek(int distance) {
+        return stack[sp - 1 - distance];
+    }
+
+    private void pushFrame(VmClosure closure, int base, boolean constructing) {
+        Task.checkCancelled();
+        if (frameCount == FRAMES_MAX) {
+            throw new RuntimeError(null, "Stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+            for (int i = frameCount; i < frames.length; i++) {
+                frames[i] = new CallFrame();
+            }
+        }
+        ensureStack(base + closure.function.maxStack);
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        frame.constructing = constructing;
+    }
+
+    private static void checkArity(int arity, int argCount) {
+        if (argCount != arity && arity != IvoryScriptCallable.VARIADIC) {
+            throw new RuntimeError(null, "Expected " + arity + " arguments but got " + argCount + ".");
+        }
+    }
+
+    // Either pushes a new frame for a closure or runs a native callable and
+    // leaves its result on the stack.
+    private void callValue(Object callee, int argCount) {
+        int calleeSlot = sp - argCount - 1;
+
+        if (callee instanceof VmClosure) {
+            VmClosure closure = (VmClosure) callee;
+            checkArity(closure.function.arity, argCount);
+            if (closure.receiver != null) {
+                stack[calleeSlot] = closure.receiver;
+            }
+            pushFrame(closure, calleeSlot, false);
+            return;
+        }
+
+        if (callee instanceof IvoryScriptClass) {
+            IvoryScriptClass klass = (IvoryScriptClass) callee;
+            IvoryScriptFunction initializer = klass.initializer;
+            checkArity(klass.arity(), argCount);
+            IvoryScriptInstance instance = new IvoryScriptInstance(klass);
+            if (initializer instanceof VmClosure) {
+                stack[calleeSlot] = instance;
+                pushFrame((VmClosure) initializer, calleeSlot, true);
+                return;
+            }
+            if (initializer != null) {
+                initializer.bind(instance).call(interpreter, popArguments(argCount));
+            }
+            pop();
+            push(instance);
+            return;
+        }
+
+        if (callee instanceof IvoryScriptCallable) {
+            IvoryScriptCallable function = (IvoryScriptCallable) callee;
+            checkArity(function.arity(), argCount);
+            List<Object> arguments = popArguments(argCount);
+            pop();
+            push(function.call(interpreter, arguments));
+            return;
+        }
+
+        throw new RuntimeError(null, "Can only call functions and classes.");
+    }
+
+    // Calls a method on the receiver sitting below the arguments. A method
+    // found on the class runs with the receiver as its slot 0 directly, and a
+    // native string, array or dictionary method gets the receiver passed
+    // straight in; a field holding a function, or any other property, goes
+    // through an ordinary call.
+    private void invoke(Token name, InlineCache cache, int argCount) {
+        int receiverSlot = sp - argCount - 1;
+        Object receiver = stack[receiverSlot];
+        if (receiver instanceof IvoryScriptInstance) {
+            IvoryScriptInstance instance = (IvoryScriptInstance) receiver;
+            IvoryScriptFunction method = instance.methodFor(name, cache);
+            if (method instanceof VmClosure) {
+                VmClosure closure = (VmClosure) method;
+                checkArity(closure.function.arity, argCount);
+                pushFrame(closure, receiverSlot, false);
+                return;
+            }
+            if (method != null) {
+                callValue(method.bind(instance), argCount);
+                return;
+            }
+        } else if (Interpreter.isString(receiver)) {
+            StringMethod method = StringMethod.find(name);
+            List<Object> arguments = popMethodArguments(method.arity, argCount);
+            push(method.call((CharSequence) receiver, arguments));
+            return;
+        } else if (receiver instanceof IvoryScriptArray || receiver instanceof DictionaryView) {
+            ArrayMethod method = ArrayMethod.find(name.lexeme);
+            if (method != null) {
+                IvoryScriptArray array = method.receiver(receiver);
+                List<Object> arguments = popMethodArguments(method.arity, argCount);
+                push(method.call(interpreter, array, arguments));
+                return;
+            }
+        } else if (receiver instanceof IvoryScriptDictionary) {
+            DictionaryMethod method = DictionaryMethod.find(name.lexeme);
+            if (method != null) {
+                List<Object> arguments = popMethodArguments(method.arity, argCount);
+                push(method.call((IvoryScriptDictionary) receiver, arguments));
+                return;
+            }
+        }
+        stack[receiverSlot] = Interpreter.getProperty(receiver, name, cache);
+        callValue(stack[receiverSlot], argCount);
+    }
+
+    // Pops the arguments and the receiver under them for a native method.
+    private List<Object> popMethodArguments(int arity, int argCount) {
+        checkArity(arity, argCount);
+        List<Object> arguments = popArguments(argCount);
+        pop();
+        return arguments;
+    }
+
+    private List<Object> popArguments(int argCount) {
+        List<Object> arguments = new ArrayList<>(argCount);
+        for (int i = sp - argCount; i < sp; i++) {
+            arguments.add(stack[i]);
+            stack[i] = null;
+        }
+        sp -= argCount;
+        return arguments;
+    }
+
+    private VmUpvalue captureUpvalue(int slot) {
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) {
+            return upvalue;
+        }
+
+        VmUpvalue created = new VmUpvalue(this, slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int lastSlot) {
+        while (openUpvalues != null && openUpvalues.slot >= lastSlot) {
+            VmUpvalue upvalue = openUpvalues;
+            openUpvalues = upvalue.next;
+            upvalue.close();
+        }
+    }
+
+    // Runs until the frame at index baseFrame returns, and hands back its
+    // return value.
+    private Object run(int baseFrame) {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        try {
+            for (;;) {
+                byte instruction = code[ip++];
+                switch (instruction) {
+                    case OpCode.CONSTANT: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        push(constants[index]);
+                        break;
+                    }
+                    case OpCode.NIL: push(null); break;
+                    case OpCode.TRUE: push(Boolean.TRUE); break;
+                    case OpCode.FALSE: push(Boolean.FALSE); break;
+                    case OpCode.POP: pop(); break;
+                    case OpCode.GET_LOCAL:
+                        push(stack[base + (code[ip++] & 0xff)]);
+                        break;
+                    case OpCode.SET_LOCAL:
+                        stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                        break;
+                    case OpCode.GET_GLOBAL: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        VmGlobals.Cell global = globals.get(index);
+                        Object value = global.value;
+                        if (value == VmGlobals.UNDEFINED) {
+                            throw new RuntimeError(null, "Undefined variable '" + global.name + "'.");
+                        }
+                        push(value);
+                        break;
+                    }
+                    case OpCode.DEFINE_GLOBAL: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        globals.get(index).value = pop();
+                        break;
+                    }
+                    case OpCode.SET_GLOBAL: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        VmGlobals.Cell global = globals.get(index);
+                        if (global.value == VmGlobals.UNDEFINED) {
+                            throw new RuntimeError(null, "Undefined variable '" + global.name + "'.");
+                        }
+                        global.value = stack[sp - 1];
+                        break;
+                    }
+                    case OpCode.GET_UPVALUE: {
+                        VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        push(upvalue.get());
+                        break;
+                    }
+                    case OpCode.SET_UPVALUE: {
+                        VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        upvalue.set(stack[sp - 1], this);
+                        break;
+                    }
+                    case OpCode.GET_PROPERTY: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        int cache = ((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff);
+                        ip += 4;
+                        stack[sp - 1] = Interpreter.getProperty(stack[sp - 1], (Token) constants[index],
+                                frame.closure.function.chunk.caches[cache]);
+                        break;
+                    }
+                    case OpCode.SET_PROPERTY: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        int cache = ((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff);
+                        ip += 4;
+                        Token name = (Token) constants[index];
+                        Object value = pop();
+                        Object object = pop();
+                        if (!(object instanceof IvoryScriptInstance)) {
+                            throw new RuntimeError(name, "Only instances have fields.");
+                        }
+                        ((IvoryScriptInstance) object).set(name, value, frame.closure.function.chunk.caches[cache]);
+                        push(value);
+                        break;
+                    }
+                    case OpCode.GET_SUPER: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        Token method = (Token) constants[index];
+                        Object instance = pop();
+                        Object superclass = pop();
+                        if (!(superclass instanceof IvoryScriptClass)) {
+                            throw new RuntimeError(null, "Can't use 'super' outside of a class.");
+                        }
+                        if (!(instance instanceof IvoryScriptInstance)) {
+                            throw new RuntimeError(null, "Can't use 'super' outside of an instance method.");
+                        }
+                        IvoryScriptFunction function = ((IvoryScriptClass) superclass).findMethod(method.lexeme);
+                        if (function == null) {
+                            throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+                        }
+                        push(function.bind((IvoryScriptInstance) instance));
+                        break;
+                    }
+                    case OpCode.GET_INDEX: {
+                        Object index = pop();
+                        Object object = pop();
+                        push(Interpreter.getIndex(object, index, null));
+                        break;
+                    }
+                    case OpCode.SET_INDEX: {
+                        Object value = pop();
+                        Object index = pop();
+                        Object object = pop();
+                        push(Interpreter.setIndex(object, index, value, null));
+                        break;
+                    }
+                    case OpCode.EQUAL: {
+                        Object b = pop();
+                        Object a = pop();
+                        push(Interpreter.isEqual(a, b));
+                        break;
+                    }
+                    case OpCode.GREATER: {
+                        Object b = pop();
+                        Object a = pop();
+                        if (a instanceof Long && b instanceof Long) {
+                            push((long) a > (long) b);
+                        } else if (a instanceof Double && b instanceof Double) {
+                            push((double) a > (double) b);
+                        } else {
+                            push(Interpreter.binaryOp(TokenType.GREATER, null, a, b));
+                        }
+                        break;
+                    }
+                    case OpCode.GREATER_EQUAL: {
+                        Object b = pop();
+                        Object a = pop();
+                        if (a instanceof Long && b instanceof Long) {
+                            push((long) a >= (long) b);
+                        } else if (a instanceof Double && b instanceof Double) {
+                            push((double) a >= (double) b);
+                        } else {
+                            push(Interpreter.binaryOp(TokenType.GREATER_EQUAL, null, a, b));
+                        }
+                        break;
+                    }
+                    case OpCode.LESS: {
+                        Object b = pop();
+                        Object a = pop();
+                        if (a instanceof Long && b instanceof Long) {
+                            push((long) a < (long) b);
+                        } else if (a instanceof Double && b instanceof Double) {
+                            push((double) a < (double) b);
+                        } else {
+                            push(Interpreter.binaryOp(TokenType.LESS, null, a, b));
+                        }
+                        break;
+                    }
+                    case OpCode.LESS_EQUAL: {
+                        Object b = pop();
+                        Object a = pop();
+                        if (a instanceof Long && b instanceof Long) {
+                            push((long) a <= (long) b);
+                        } else if (a instanceof Double && b instanceof Double) {
+                            push((double) a <= (double) b);
+                        } else {
+                            push(Interpreter.binaryOp(TokenType.LESS_EQUAL, null, a, b));
+                        }
+                        break;
+                    }
+                    case OpCode.ADD: {
+                        Object b = pop();
+                        Object a = pop();
+                        if (a instanceof Long && b instanceof Long) {
+                            push(Interpreter.add((long) a, (long) b));
+                        } else if (a instanceof Double && b instanceof Double) {
+                            push((double) a + (double) b);
+                        } else {
+                            push(Interpreter.binaryOp(TokenType.PLUS, null, a, b));
+                        }
+                        break;
+                    }
+                    case OpCode.SUBTRACT: {
+                        Object b = pop();
+                        Object a = pop();
+                        if (a instanceof Long && b instanceof Long) {
+                            push(Interpreter.subtract((long) a, (long) b));
+                        } else if (a instanceof Double && b instanceof Double) {
+                            push((double) a - (double) b);
+                        } else {
+                            push(Interpreter.binaryOp(TokenType.MINUS, null, a, b));
+                        }
+                        break;
+                    }
+                    case OpCode.MULTIPLY: {
+                        Object b = pop();
+                        Object a = pop();
+                        if (a instanceof Long && b instanceof Long) {
+                            push(Interpreter.multiply((long) a, (long) b));
+                        } else if (a instanceof Double && b instanceof Double) {
+                            push((double) a * (double) b);
+                        } else {
+                            push(Interpreter.binaryOp(TokenType.STAR, null, a, b));
+                        }
+                        break;
+                    }
+                    case OpCode.DIVIDE: {
+                        Object b = pop();
+                        Object a = pop();
+                        push(Interpreter.binaryOp(TokenType.SLASH, null, a, b));
+                        break;
+                    }
+                    case OpCode.NOT:
+                        stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                        break;
+                    case OpCode.NEGATE: {
+                        Object value = stack[sp - 1];
+                        stack[sp - 1] = Interpreter.negate(null, value);
+                        break;
+                    }
+                    case OpCode.PRINT:
+                        Output.println(Interpreter.stringify(pop()));
+                        break;
+                    case OpCode.JUMP: {
+                        int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2 + offset;
+                        break;
+                    }
+                    case OpCode.JUMP_IF_FALSE: {
+                        int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        if (!Interpreter.isTruthy(pop())) ip += offset;
+                        break;
+                    }
+                    case OpCode.LOOP: {
+                        int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2 - offset;
+                        Task.checkCancelled();
+                        break;
+                    }
+                    case OpCode.CALL: {
+                        int argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        callValue(peek(argCount), argCount);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    case OpCode.INVOKE: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        int cache = ((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff);
+                        int argCount = code[ip + 4] & 0xff;
+                        ip += 5;
+                        frame.ip = ip;
+                        invoke((Token) constants[index], frame.closure.function.chunk.caches[cache], argCount);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    case OpCode.CLOSURE: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        VmFunction function = (VmFunction) constants[index];
+                        VmUpvalue[] upvalues = new VmUpvalue[function.upvalueCount];
+                        for (int i = 0; i < upvalues.length; i++) {
+                            boolean isLocal = code[ip++] != 0;
+                            int slot = code[ip++] & 0xff;
+                            upvalues[i] = isLocal ? captureUpvalue(base + slot) : frame.closure.upvalues[slot];
+                        }
+                        push(new VmClosure(function, upvalues, null));
+                        break;
+                    }
+                    case OpCode.CLOSE_UPVALUE:
+                        closeUpvalues(sp - 1);
+                        pop();
+                        break;
+                    case OpCode.RETURN: {
+                        Object result = pop();
+                        closeUpvalues(base);
+                        if (frame.constructing) {
+                            result = stack[base];
+                        }
+                        Arrays.fill(stack, base, base + frame.closure.function.maxStack, null);
+                        sp = base;
+                        frameCount--;
+                        if (frameCount == baseFrame) {
+                            return result;
+                        }
+                        push(result);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    case OpCode.CLASS: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        int methodCount = code[ip++] & 0xff;
+                        boolean hasSuperclass = code[ip++] != 0;
+
+                        Map<String, IvoryScriptFunction> methods = new HashMap<>();
+                        for (int i = sp - methodCount; i < sp; i++) {
+                            VmClosure method = (VmClosure) stack[i];
+                            methods.put(method.function.name, method);
+                            stack[i] = null;
+                        }
+                        sp -= methodCount;
+
+                        IvoryScriptClass superclass = null;
+                        if (hasSuperclass) {
+                            Object value = peek(0);
+                            if (!(value instanceof IvoryScriptClass)) {
+                                throw new RuntimeError(null, "Superclass must be a class.");
+                            }
+                            superclass = (IvoryScriptClass) value;
+                        }
+                        push(new IvoryScriptClass((String) constants[index], superclass, methods, interpreter.run));
+                        break;
+                    }
+                    case OpCode.ARRAY: {
+                        int count = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        List<Object> elements = popArguments(count);
+                        push(new IvoryScriptArray(elements));
+                        break;
+                    }
+                    case OpCode.DICTIONARY: {
+                        int count = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        IvoryScriptDictionary dict = new IvoryScriptDictionary();
+                        for (int i = sp - count * 2; i < sp; i += 2) {
+                            Interpreter.checkDictionaryKey(stack[i], null);
+                            dict.set(stack[i], stack[i + 1]);
+                        }
+                        Arrays.fill(stack, sp - count * 2, sp, null);
+                        sp -= count * 2;
+                        push(dict);
+                        break;
+                    }
+                    default:
+                        throw new RuntimeError(null, "Unknown opcode " + instruction + ".");
+                }
+            }
+        } catch (RuntimeError error) {
+            if (error.token != null) throw error;
+            int line = frame.closure.function.chunk.lines[Math.max(ip - 1, 0)];
+            throw new RuntimeError(new Token(TokenType.EOF, "", null, line), error.getMessage());
+        }
+    }
+}
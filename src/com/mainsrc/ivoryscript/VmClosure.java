@@ -0,0 +1,45 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.List;
+
+// A function value in the VM. It extends IvoryScriptFunction so classes,
+// instances and type() treat it exactly like a tree-walker function. Called
+// from Java it runs on the VM of the interpreter calling it, which is a
+// forked one on a parallel worker.
+class VmClosure extends IvoryScriptFunction {
+    final VmFunction function;
+    final VmUpvalue[] upvalues;
+    final Object receiver;
+
+    VmClosure(VmFunction function, VmUpvalue[] upvalues, Object receiver) {
+        super(function.declaration);
+        this.function = function;
+        this.upvalues = upvalues;
+        this.receiver = receiver;
+    }
+
+    @Override
+    public IvoryScriptFunction bind(IvoryScriptInstance instance) {
+        return new VmClosure(function, upvalues, instance);
+    }
+
+    @Override
+    public int arity() {
+        return function.arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return interpreter.vm.call(this, arguments);
+    }
+
+    @Override
+    Object callMethod(Interpreter interpreter, IvoryScriptInstance instance, List<Object> arguments) {
+        return interpreter.vm.call(new VmClosure(function, upvalues, instance), arguments);
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,23 @@
+package com.mainsrc.ivoryscript;
+
+// The compiled, immutable part of a function. Closures created at runtime
+// share it and add their captured upvalues.
+class VmFunction {
+    final String name;
+    final Stmt.Function declaration;
+    final int arity;
+    final Chunk chunk = new Chunk();
+    int upvalueCount = 0;
+    int maxStack = 1;
+
+    VmFunction(String name, Stmt.Function declaration, int arity) {
+        this.name = name;
+        this.declaration = declaration;
+        this.arity = arity;
+    }
+
+    @Override
+    public String toString() {
+        return name == null ? "<script>" : "<fn " + name + ">";
+    }
+}
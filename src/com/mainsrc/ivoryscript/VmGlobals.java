@@ -0,0 +1,49 @@
+package com.mainsrc.ivoryscript;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// The VM's global table, shared by a VM and every fork running its
+// functions on another thread. Each global is a cell of its own and the
+// cell array is only ever swapped for a bigger copy, so a store made through
+// an old array isn't lost, and a fork sees globals the REPL adds after it
+// started. Values are volatile, so a global defined on one thread is seen
+// by the others.
+final class VmGlobals {
+    static final Object UNDEFINED = new Object();
+
+    static final class Cell {
+        final String name;
+        volatile Object value;
+
+        Cell(String name, Object value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    private final Map<String, Integer> index = new HashMap<>();
+    private volatile Cell[] cells = new Cell[64];
+    private int count = 0;
+
+    // Index of a global, allocated on first use. Names the interpreter
+    // already defines (the natives) start out with that value.
+    synchronized int slot(String name, Environment natives) {
+        Integer existing = index.get(name);
+        if (existing != null) return existing;
+
+        Cell[] current = cells;
+        if (count == current.length) {
+            current = Arrays.copyOf(current, count * 2);
+        }
+        current[count] = new Cell(name, natives.getOrDefault(name, UNDEFINED));
+        cells = current;
+        index.put(name, count);
+        return count++;
+    }
+
+    Cell get(int slot) {
+        return cells[slot];
+    }
+}
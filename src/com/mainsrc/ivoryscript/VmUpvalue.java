@@ -0,0 +1,64 @@
+package com.mainsrc.ivoryscript;
+
+import java.lang.invoke.VarHandle;
+
+// A variable captured by a closure. While the variable is still on the stack
+// of the VM that created it the upvalue points at its slot, which a closure
+// running on a forked VM reads through vm; once that slot goes away the
+// value moves into the upvalue itself.
+//
+// That VM keeps running while the forked one uses the upvalue, and reuses
+// the slot as soon as it is closed. So a read takes the slot once and checks
+// it is still open afterwards, the way StampedLock validates an optimistic
+// read, and writing or closing holds the owning VM's lock, which it also
+// holds while moving its stack.
+class VmUpvalue {
+    final VM vm;
+    volatile int slot;
+    volatile Object closed;
+    VmUpvalue next;
+
+    VmUpvalue(VM vm, int slot, VmUpvalue next) {
+        this.vm = vm;
+        this.slot = slot;
+        this.next = next;
+    }
+
+    Object get() {
+        int slot = this.slot;
+        if (slot >= 0) {
+            Object value = vm.sharedStack[slot];
+            VarHandle.acquireFence();
+            if (this.slot == slot) return value;
+        }
+        return closed;
+    }
+
+    // Only the owning VM closes the upvalue or moves its stack, so it can
+    // write without the lock.
+    void set(Object value, VM current) {
+        if (current == vm) {
+            int slot = this.slot;
+            if (slot >= 0) {
+                vm.sharedStack[slot] = value;
+            } else {
+                closed = value;
+            }
+            return;
+        }
+        synchronized (vm) {
+            if (slot >= 0) {
+                vm.sharedStack[slot] = value;
+            } else {
+                closed = value;
+            }
+        }
+    }
+
+    void close() {
+        synchronized (vm) {
+            closed = vm.sharedStack[slot];
+            slot = -1;
+        }
+    }
+}